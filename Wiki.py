@@ -1,5 +1,16 @@
+import os
 import wikipedia
+from WikiSnapshot import Snapshot
+
+SNAPSHOT_PATH = os.environ.get("WIKI_SNAPSHOT", os.path.join(os.path.dirname(__file__), "wiki_snapshot.bin"))
+snapshot = Snapshot(SNAPSHOT_PATH) if os.path.exists(SNAPSHOT_PATH) else None
+
 def summary(query):
+    # Exact title or alias from the offline snapshot first, live Wikipedia on a miss
+    if snapshot is not None:
+        result = snapshot.lookup(query)
+        if result is not None:
+            return result
     try:
         return wikipedia.summary(query)
     except:
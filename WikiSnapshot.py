@@ -0,0 +1,206 @@
+import mmap
+import os
+import struct
+import sys
+import time
+import logging
+from bisect import bisect_left
+from typing import Iterable, List, Optional, Tuple
+
+# Set up logging
+logging.basicConfig(level=logging.INFO)
+logger = logging.getLogger(__name__)
+
+# File layout (all integers little-endian):
+#   header    MAGIC, version, key count, summary count, keys offset, summaries offset
+#   keys      key count fixed-size records (key offset, key length, summary index), sorted by key bytes
+#   key blob  normalized UTF-8 keys referenced by the key records
+#   summaries summary count fixed-size records (blob offset, blob length)
+#   text blob UTF-8 summaries referenced by the summary records
+MAGIC = b"VCKS"
+VERSION = 1
+HEADER = struct.Struct("<4sIIIQQ")
+KEY_RECORD = struct.Struct("<IHI")
+SUMMARY_RECORD = struct.Struct("<QI")
+MAX_KEY_BYTES = 0xFFFF
+
+
+def normalize(text: str) -> str:
+    """Normalize a title or query so lookups ignore case and spacing."""
+    if not isinstance(text, str):
+        return ""
+    return " ".join(text.replace("_", " ").lower().split())
+
+
+def build(entries: Iterable[Tuple[str, List[str], str]], path: str) -> int:
+    """
+    Write a snapshot file from (title, aliases, summary) entries.
+
+    Args:
+        entries: Iterable of title, alias list and summary text
+        path: Destination file, replaced atomically
+
+    Returns:
+        int: Number of keys written
+    """
+    keys = {}
+    summaries: List[bytes] = []
+    for title, aliases, text in entries:
+        if not text:
+            continue
+        index = len(summaries)
+        summaries.append(text.encode("utf-8"))
+        for name in [title] + list(aliases):
+            key = normalize(name).encode("utf-8")
+            # First writer wins so a title is never shadowed by another page's alias
+            if key and len(key) <= MAX_KEY_BYTES and key not in keys:
+                keys[key] = index
+
+    sorted_keys = sorted(keys)
+    keys_offset = HEADER.size
+    key_blob_offset = keys_offset + KEY_RECORD.size * len(sorted_keys)
+    key_blob_size = sum(len(k) for k in sorted_keys)
+    summaries_offset = key_blob_offset + key_blob_size
+    text_blob_offset = summaries_offset + SUMMARY_RECORD.size * len(summaries)
+
+    tmp_path = path + ".tmp"
+    with open(tmp_path, "wb") as out:
+        out.write(HEADER.pack(MAGIC, VERSION, len(sorted_keys), len(summaries),
+                              keys_offset, summaries_offset))
+        position = key_blob_offset
+        for key in sorted_keys:
+            out.write(KEY_RECORD.pack(position, len(key), keys[key]))
+            position += len(key)
+        for key in sorted_keys:
+            out.write(key)
+        position = text_blob_offset
+        for data in summaries:
+            out.write(SUMMARY_RECORD.pack(position, len(data)))
+            position += len(data)
+        for data in summaries:
+            out.write(data)
+    os.replace(tmp_path, path)
+    return len(sorted_keys)
+
+
+class Snapshot:
+    """Read-only, memory-mapped view over a snapshot file."""
+
+    def __init__(self, path: str):
+        with open(path, "rb") as f:
+            self._map = mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ)
+        magic, version, self._key_count, self._summary_count, self._keys_offset, \
+            self._summaries_offset = HEADER.unpack_from(self._map, 0)
+        if magic != MAGIC or version != VERSION:
+            self._map.close()
+            raise ValueError(f"Not a knowledge snapshot: {path}")
+        # bisect works on any sequence, so the index is searched in place without loading it
+        self._keys = _KeyView(self)
+
+    def __len__(self) -> int:
+        return self._key_count
+
+    def close(self):
+        self._map.close()
+
+    def _key(self, i: int) -> bytes:
+        offset, length, _ = KEY_RECORD.unpack_from(self._map, self._keys_offset + i * KEY_RECORD.size)
+        return self._map[offset:offset + length]
+
+    def _summary(self, i: int) -> str:
+        _, _, index = KEY_RECORD.unpack_from(self._map, self._keys_offset + i * KEY_RECORD.size)
+        offset, length = SUMMARY_RECORD.unpack_from(
+            self._map, self._summaries_offset + index * SUMMARY_RECORD.size)
+        return self._map[offset:offset + length].decode("utf-8")
+
+    def lookup(self, query: str) -> Optional[str]:
+        """Return the summary for an exact title or alias match, or None."""
+        key = normalize(query).encode("utf-8")
+        if not key:
+            return None
+        i = bisect_left(self._keys, key)
+        if i < self._key_count and self._key(i) == key:
+            return self._summary(i)
+        return None
+
+    def prefix(self, query: str, limit: int = 5) -> List[Tuple[str, str]]:
+        """
+        Return up to limit (key, summary) pairs whose key starts with the query, in key order.
+        Prefix hits are often unrelated pages ("mars" -> "marsupial"), so this is for
+        suggestions only; answers should come from lookup().
+        """
+        key = normalize(query).encode("utf-8")
+        results = []
+        if not key:
+            return results
+        i = bisect_left(self._keys, key)
+        while i < self._key_count and len(results) < limit:
+            candidate = self._key(i)
+            if not candidate.startswith(key):
+                break
+            results.append((candidate.decode("utf-8"), self._summary(i)))
+            i += 1
+        return results
+
+
+class _KeyView:
+    def __init__(self, snapshot: Snapshot):
+        self._snapshot = snapshot
+
+    def __len__(self) -> int:
+        return self._snapshot._key_count
+
+    def __getitem__(self, i: int) -> bytes:
+        return self._snapshot._key(i)
+
+
+def _fetch_entries(titles: Iterable[str]):
+    import wikipedia
+    for line in titles:
+        # One page per line: "Title|alias one|alias two"
+        names = [n.strip() for n in line.split("|") if n.strip()]
+        if not names:
+            continue
+        try:
+            page = wikipedia.page(names[0], auto_suggest=False)
+            yield page.title, names + [page.title], page.summary
+        except Exception as e:
+            logger.warning(f"Skipping {names[0]}: {str(e)}")
+
+
+def _bench(path: str, queries: List[str], live: bool):
+    snapshot = Snapshot(path)
+    start = time.perf_counter()
+    hits = sum(1 for q in queries if snapshot.lookup(q) is not None)
+    elapsed = time.perf_counter() - start
+    logger.info(f"snapshot: {hits}/{len(queries)} hits, "
+                f"{elapsed * 1e6 / max(len(queries), 1):.1f} us/lookup")
+    snapshot.close()
+    if live:
+        import wikipedia
+        start = time.perf_counter()
+        for q in queries:
+            try:
+                wikipedia.summary(q)
+            except Exception:
+                pass
+        elapsed = time.perf_counter() - start
+        logger.info(f"live: {elapsed * 1e3 / max(len(queries), 1):.1f} ms/lookup")
+
+
+if __name__ == "__main__":
+    usage = ("usage: WikiSnapshot.py build <titles.txt> <snapshot.bin>\n"
+             "       WikiSnapshot.py bench <snapshot.bin> <queries.txt> [--live]")
+    if len(sys.argv) < 4:
+        sys.exit(usage)
+    command = sys.argv[1]
+    if command == "build":
+        with open(sys.argv[2], encoding="utf-8") as f:
+            count = build(_fetch_entries(f), sys.argv[3])
+        logger.info(f"Wrote {count} keys to {sys.argv[3]}")
+    elif command == "bench":
+        with open(sys.argv[3], encoding="utf-8") as f:
+            queries = [line.strip() for line in f if line.strip()]
+        _bench(sys.argv[2], queries, "--live" in sys.argv[4:])
+    else:
+        sys.exit(usage)
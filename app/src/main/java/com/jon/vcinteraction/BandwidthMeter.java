@@ -0,0 +1,88 @@
+package com.jon.vcinteraction;
+
+/**
+ * Rolling transfer rate estimate. Each transfer accumulates bytes into its own short windows and
+ * every closed window updates a shared exponentially weighted moving average, so the estimate
+ * follows changing network conditions without jumping on every write, and concurrent uploads do
+ * not reset each other's windows.
+ */
+public class BandwidthMeter {
+    private static final long WINDOW_NANOS = 100_000_000L; // 100 ms
+    private static final double SMOOTHING = 0.3;
+
+    private final Clock clock;
+    // Backs the single-stream onBytesTransferred/onTransferEnd shortcuts
+    private final Transfer defaultTransfer;
+    private double estimate = -1;
+
+    public BandwidthMeter() {
+        this(Clock.SYSTEM);
+    }
+
+    public BandwidthMeter(Clock clock) {
+        this.clock = clock;
+        this.defaultTransfer = new Transfer();
+    }
+
+    /**
+     * Starts measuring one transfer; use one per concurrent upload.
+     */
+    public Transfer startTransfer() {
+        return new Transfer();
+    }
+
+    public void onBytesTransferred(long bytes) {
+        defaultTransfer.onBytesTransferred(bytes);
+    }
+
+    /**
+     * Ends the current transfer so idle time before the next one is not counted as slow transfer.
+     */
+    public void onTransferEnd() {
+        defaultTransfer.end();
+    }
+
+    private synchronized void addSample(double rate) {
+        estimate = estimate < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * estimate;
+    }
+
+    /**
+     * Smoothed rate in bytes per second, or -1 before the first full window.
+     */
+    public synchronized long getEstimateBytesPerSecond() {
+        return (long) estimate;
+    }
+
+    /**
+     * Window state for one transfer.
+     */
+    public final class Transfer {
+        private long windowStart = -1;
+        private long windowBytes;
+
+        private Transfer() {
+        }
+
+        public synchronized void onBytesTransferred(long bytes) {
+            long now = clock.nanoTime();
+            if (windowStart < 0) {
+                windowStart = now;
+            }
+            windowBytes += bytes;
+            long elapsed = now - windowStart;
+            if (elapsed >= WINDOW_NANOS) {
+                addSample(windowBytes * 1e9 / elapsed);
+                windowStart = now;
+                windowBytes = 0;
+            }
+        }
+
+        /**
+         * Drops the partial window; it is too short to say anything about the link.
+         */
+        public synchronized void end() {
+            windowStart = -1;
+            windowBytes = 0;
+        }
+    }
+}
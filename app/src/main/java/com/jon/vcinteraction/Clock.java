@@ -0,0 +1,10 @@
+package com.jon.vcinteraction;
+
+/**
+ * Monotonic time source, replaceable in tests.
+ */
+public interface Clock {
+    Clock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
@@ -0,0 +1,23 @@
+package com.jon.vcinteraction;
+
+/**
+ * Device conditions the {@link ResourceGovernor} adapts to. Thermal levels mirror Android's
+ * PowerManager.THERMAL_STATUS_* values so the platform implementation can pass them through.
+ */
+public interface DeviceSensors {
+    int THERMAL_NONE = 0;
+    int THERMAL_LIGHT = 1;
+    int THERMAL_MODERATE = 2;
+    int THERMAL_SEVERE = 3;
+
+    int thermalStatus();
+
+    /**
+     * Remaining charge from 0 to 1.
+     */
+    float batteryLevel();
+
+    boolean isCharging();
+
+    boolean isPowerSaveMode();
+}
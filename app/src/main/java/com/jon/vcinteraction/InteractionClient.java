@@ -0,0 +1,278 @@
+package com.jon.vcinteraction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends interaction requests and turns OkHttp callbacks into a success body or a user-facing
+ * error message, optionally routing through a {@link ServerPool}. Android-free so the same path
+ * can be driven by JVM load tests.
+ */
+public class InteractionClient {
+    /** Response header carrying the milliseconds the server spent on the request. */
+    public static final String PROCESSING_TIME_HEADER = "X-Processing-Time";
+
+    public interface Listener {
+        void onSuccess(String responseBody);
+
+        void onError(String errorMessage, IOException cause);
+
+        /**
+         * The call was cancelled or superseded; no error should be shown.
+         */
+        void onCancelled();
+
+        /**
+         * Called before onSuccess when the server reported its processing time, which excludes
+         * the upload and download.
+         */
+        default void onServerTiming(long processingMs) {
+        }
+    }
+
+    private final OkHttpClient client;
+    // Same connections and settings as client, with its own dispatcher so limiting media uploads
+    // never queues text questions behind them
+    private final OkHttpClient uploadClient;
+    private final ServerPool serverPool;
+    private final Set<Call> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
+    // Bumped by cancelAll so retries of interactions it cancelled are never sent
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public InteractionClient(OkHttpClient client) {
+        this(client, null);
+    }
+
+    /**
+     * @param serverPool backends to route between, or null to send requests to their own URL
+     */
+    public InteractionClient(OkHttpClient client, ServerPool serverPool) {
+        this.client = client;
+        this.uploadClient = client.newBuilder().dispatcher(new Dispatcher()).build();
+        this.serverPool = serverPool;
+    }
+
+    /**
+     * Client settings used by the app: pooled connections, bounded timeouts and retries on
+     * connection failure.
+     */
+    public static OkHttpClient.Builder defaultClientBuilder() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, 30, TimeUnit.SECONDS))
+                .callTimeout(45, TimeUnit.SECONDS)
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true);
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Caps how many image and video uploads run at once; further uploads wait their turn. Text
+     * questions and hash references are not limited.
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        Dispatcher dispatcher = uploadClient.dispatcher();
+        dispatcher.setMaxRequests(maxConcurrentUploads);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentUploads);
+    }
+
+    /**
+     * Stops the dispatcher threads of both clients and closes idle connections, so a JVM that
+     * is done with the client can exit without waiting for them to time out.
+     */
+    public void shutdown() {
+        client.dispatcher().executorService().shutdown();
+        uploadClient.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Cancels every call still uploading or waiting for an answer.
+     *
+     * @return number of calls cancelled
+     */
+    public int cancelAll() {
+        generation.incrementAndGet();
+        List<Call> calls = new ArrayList<>(inFlight);
+        for (Call call : calls) {
+            call.cancel();
+        }
+        return calls.size();
+    }
+
+    /**
+     * Sends a request that replaces any interaction still in flight, whose answer would be stale.
+     */
+    public void supersede(Request request, Listener listener) {
+        cancelAll();
+        send(request, listener);
+    }
+
+    public void send(Request request, Listener listener) {
+        dispatch(request, listener, new HashSet<ServerPool.Backend>(), generation.get());
+    }
+
+    /**
+     * @param sendGeneration cancelAll generation the interaction was sent in; a failover or
+     *                       re-upload after a later cancelAll is reported as cancelled instead
+     */
+    private void dispatch(Request request, Listener listener, Set<ServerPool.Backend> tried, int sendGeneration) {
+        if (generation.get() != sendGeneration) {
+            listener.onCancelled();
+            return;
+        }
+        MediaDedupe.Upload upload = request.tag(MediaDedupe.Upload.class);
+        ServerPool.Backend backend;
+        if (serverPool != null && upload != null && upload.isReference()) {
+            // Only the pool member that confirmed the media can resolve a hash reference
+            backend = serverPool.find(upload.origin);
+            if (backend == null || tried.contains(backend) || !serverPool.isAvailable(backend)) {
+                dispatch(upload.fullUpload, listener, tried, sendGeneration);
+                return;
+            }
+        } else {
+            backend = serverPool != null ? serverPool.choose(tried) : null;
+        }
+        Request routed = request;
+        if (backend != null) {
+            tried.add(backend);
+            backend.onStart();
+            routed = serverPool.route(request, backend);
+        }
+        long start = System.nanoTime();
+
+        Call call = (isMediaUpload(routed, upload) ? uploadClient : client).newCall(routed);
+        inFlight.add(call);
+        if (generation.get() != sendGeneration) {
+            // cancelAll ran between the check above and registering the call
+            call.cancel();
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                inFlight.remove(call);
+                failed(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                inFlight.remove(call);
+                try {
+                    if (response.isSuccessful()) {
+                        String responseBody = response.body() != null ? response.body().string() : "";
+                        if (backend != null) {
+                            backend.onSuccess(System.nanoTime() - start);
+                        }
+                        if (upload != null) {
+                            upload.onAccepted(call.request().url());
+                        }
+                        long processingMs = processingTime(response);
+                        if (processingMs >= 0) {
+                            listener.onServerTiming(processingMs);
+                        }
+                        listener.onSuccess(responseBody);
+                    } else if (response.code() == MediaDedupe.MEDIA_UNKNOWN && upload != null && upload.isReference()) {
+                        // Server evicted the media: send the bytes after all
+                        if (backend != null) {
+                            backend.onFailure(false);
+                        }
+                        upload.onMissed();
+                        dispatch(upload.fullUpload, listener, new HashSet<ServerPool.Backend>(), sendGeneration);
+                    } else {
+                        String errorBody = "";
+                        try {
+                            if (response.body() != null) {
+                                errorBody = response.body().string();
+                            }
+                        } catch (Exception ignored) { }
+
+                        boolean serverFault = response.code() >= 500;
+                        if (backend != null) {
+                            backend.onFailure(serverFault);
+                        }
+                        if (serverFault && canFailOver(request, tried)) {
+                            dispatch(request, listener, tried, sendGeneration);
+                            return;
+                        }
+                        listener.onError("Server error: " + response.code() +
+                                (errorBody.isEmpty() ? "" : " - " + errorBody), null);
+                    }
+                } catch (IOException e) {
+                    failed(call, e);
+                } finally {
+                    response.close();
+                }
+            }
+
+            private void failed(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    if (backend != null) {
+                        backend.onFinish();
+                    }
+                    listener.onCancelled();
+                    return;
+                }
+                if (backend != null) {
+                    backend.onFailure(true);
+                }
+                if (canFailOver(request, tried)) {
+                    dispatch(request, listener, tried, sendGeneration);
+                } else {
+                    listener.onError("Request failed: " + e.getMessage(), e);
+                }
+            }
+        });
+    }
+
+    private static long processingTime(Response response) {
+        String header = response.header(PROCESSING_TIME_HEADER);
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isMediaUpload(Request request, MediaDedupe.Upload upload) {
+        String path = request.url().encodedPath();
+        return (path.endsWith("/" + InteractionRequests.IMAGE_TEXT_ENDPOINT)
+                || path.endsWith("/" + InteractionRequests.VIDEO_TEXT_ENDPOINT))
+                && (upload == null || !upload.isReference());
+    }
+
+    /**
+     * Only text questions are retried on another backend; replaying a media upload would cost
+     * more than reporting the failure.
+     */
+    private boolean canFailOver(Request request, Set<ServerPool.Backend> tried) {
+        return serverPool != null
+                && request.url().encodedPath().endsWith("/" + InteractionRequests.TEXT_ENDPOINT)
+                && tried.size() < serverPool.getBackends().size();
+    }
+}
@@ -0,0 +1,135 @@
+package com.jon.vcinteraction;
+
+import java.io.File;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * Builds the multipart requests for the inference server's text, image-text and video-text
+ * endpoints.
+ */
+public class InteractionRequests {
+    public static final String TEXT_ENDPOINT = "text/";
+    public static final String IMAGE_TEXT_ENDPOINT = "image-text/";
+    public static final String VIDEO_TEXT_ENDPOINT = "video-text/";
+
+    public static final MediaType IMAGE_JPEG = MediaType.parse("image/jpeg");
+    public static final MediaType VIDEO_MP4 = MediaType.parse("video/mp4");
+
+    private final String baseUrl;
+    private MediaDedupe mediaDedupe;
+    private BandwidthMeter uploadMeter;
+    private ProgressRequestBody.Listener uploadListener;
+    private volatile float videoFps;
+
+    public InteractionRequests(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Sends hash references instead of media the server has already confirmed.
+     */
+    public void setMediaDedupe(MediaDedupe mediaDedupe) {
+        this.mediaDedupe = mediaDedupe;
+    }
+
+    /**
+     * Reports progress and measures throughput for media uploads built after this call.
+     */
+    public void setUploadMonitor(BandwidthMeter meter, ProgressRequestBody.Listener listener) {
+        this.uploadMeter = meter;
+        this.uploadListener = listener;
+    }
+
+    /**
+     * Asks the server to sample video clips at this rate; 0 leaves the server default.
+     */
+    public void setVideoFps(float videoFps) {
+        this.videoFps = videoFps;
+    }
+
+    public Request text(String text) {
+        RequestBody requestBody = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("text", text)
+                .build();
+
+        return post(TEXT_ENDPOINT, requestBody);
+    }
+
+    public Request imageAndText(File imageFile, String text) {
+        return imageAndText(imageFile, null, text);
+    }
+
+    /**
+     * @param sha256 hex SHA-256 of the image, or null to always upload the bytes
+     */
+    public Request imageAndText(File imageFile, String sha256, String text) {
+        return media(IMAGE_TEXT_ENDPOINT, "image", imageFile, IMAGE_JPEG, sha256, text);
+    }
+
+    public Request videoAndText(File videoFile, String text) {
+        return videoAndText(videoFile, null, text);
+    }
+
+    /**
+     * @param sha256 hex SHA-256 of the clip, or null to always upload the bytes
+     */
+    public Request videoAndText(File videoFile, String sha256, String text) {
+        return media(VIDEO_TEXT_ENDPOINT, "video", videoFile, VIDEO_MP4, sha256, text);
+    }
+
+    private Request media(String endpoint, String name, File file, MediaType type, String sha256, String text) {
+        MultipartBody.Builder builder = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart(name, file.getName(), RequestBody.create(file, type))
+                .addFormDataPart("text", text);
+        addVideoFps(endpoint, builder);
+        if (sha256 == null || mediaDedupe == null) {
+            return post(endpoint, monitored(builder.build()));
+        }
+
+        builder.addFormDataPart(name + "_sha256", sha256);
+        Request fullUpload = post(endpoint, monitored(builder.build()), mediaDedupe.new Upload(sha256, null, null));
+        String origin = mediaDedupe.confirmedOrigin(sha256);
+        if (origin == null) {
+            return fullUpload;
+        }
+
+        // Server already has these bytes: send only the hash, keeping the full upload as fallback
+        MultipartBody.Builder reference = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart(name + "_sha256", sha256)
+                .addFormDataPart("text", text);
+        addVideoFps(endpoint, reference);
+        return post(endpoint, reference.build(), mediaDedupe.new Upload(sha256, fullUpload, origin));
+    }
+
+    private void addVideoFps(String endpoint, MultipartBody.Builder builder) {
+        if (videoFps > 0 && VIDEO_TEXT_ENDPOINT.equals(endpoint)) {
+            builder.addFormDataPart("fps", Float.toString(videoFps));
+        }
+    }
+
+    private RequestBody monitored(RequestBody requestBody) {
+        if (uploadMeter == null && uploadListener == null) {
+            return requestBody;
+        }
+        return new ProgressRequestBody(requestBody, uploadListener, uploadMeter);
+    }
+
+    private Request post(String endpoint, RequestBody requestBody) {
+        return post(endpoint, requestBody, null);
+    }
+
+    private Request post(String endpoint, RequestBody requestBody, MediaDedupe.Upload upload) {
+        return new Request.Builder()
+                .url(baseUrl + endpoint)
+                .post(requestBody)
+                .tag(MediaDedupe.Upload.class, upload)
+                .build();
+    }
+}
@@ -0,0 +1,443 @@
+package com.jon.vcinteraction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * Long-lived WebSocket session to the inference server's session/ endpoint. Interactions are
+ * framed with {@link SessionFrames}, uploads from concurrent interactions are interleaved chunk
+ * by chunk, and answers stream back on the same socket.
+ *
+ * <p>If the socket drops, the session reconnects with backoff under the same session id and
+ * re-sends every unanswered interaction with the number of answer characters already received,
+ * so a server that kept the answer resumes from there instead of starting over.
+ */
+public class InteractionSession {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Stop handing chunks to OkHttp while this much is still queued, well below its 16 MiB limit
+    private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+    private static final long MAX_RECONNECT_DELAY_MS = 10000;
+    private static final int NORMAL_CLOSURE = 1000;
+
+    public interface Listener extends InteractionClient.Listener {
+        /**
+         * Part of the answer arrived; onSuccess later delivers the whole answer.
+         */
+        void onPartialResponse(String chunk);
+    }
+
+    private final OkHttpClient client;
+    private final Request request;
+    private final long initialReconnectDelayMs;
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor();
+
+    private final Object lock = new Object();
+    private final Map<Integer, Interaction> pending = new LinkedHashMap<>();
+    private final ArrayDeque<Upload> outbox = new ArrayDeque<>();
+    private WebSocket webSocket;
+    private int generation;
+    private int nextInteractionId = 1;
+    private long reconnectDelayMs;
+    private boolean reconnectScheduled;
+    private boolean closed;
+    private Thread sender;
+    private volatile float videoFps;
+
+    public InteractionSession(OkHttpClient client, String baseUrl) {
+        this(client, baseUrl, 500);
+    }
+
+    public InteractionSession(OkHttpClient client, String baseUrl, long initialReconnectDelayMs) {
+        this.client = client.newBuilder()
+                .pingInterval(15, TimeUnit.SECONDS)
+                .callTimeout(0, TimeUnit.SECONDS)
+                .readTimeout(0, TimeUnit.SECONDS)
+                .build();
+        this.request = new Request.Builder()
+                .url(baseUrl + "session/?id=" + UUID.randomUUID())
+                .build();
+        this.initialReconnectDelayMs = initialReconnectDelayMs;
+        this.reconnectDelayMs = initialReconnectDelayMs;
+    }
+
+    /**
+     * Asks the server to sample video clips sent after this call at this rate; 0 leaves the
+     * server default.
+     */
+    public void setVideoFps(float videoFps) {
+        this.videoFps = videoFps;
+    }
+
+    public void connect() {
+        synchronized (lock) {
+            if (sender == null) {
+                sender = new Thread(this::pumpOutbox, "InteractionSession-sender");
+                sender.setDaemon(true);
+                sender.start();
+            }
+        }
+        client.newWebSocket(request, new SessionListener());
+    }
+
+    public boolean isConnected() {
+        synchronized (lock) {
+            return webSocket != null;
+        }
+    }
+
+    public int sendText(String text, Listener listener) {
+        return submit(new Interaction(SessionFrames.KIND_TEXT, text, null, 0, listener));
+    }
+
+    public int sendImage(File imageFile, String text, Listener listener) {
+        return submit(new Interaction(SessionFrames.KIND_IMAGE, text, imageFile, 0, listener));
+    }
+
+    public int sendVideo(File videoFile, String text, Listener listener) {
+        return submit(new Interaction(SessionFrames.KIND_VIDEO, text, videoFile, videoFps, listener));
+    }
+
+    /**
+     * Abandons one unanswered interaction; its listener gets onCancelled and whatever the server
+     * still sends for it is ignored.
+     *
+     * @return false if the interaction was already answered or cancelled
+     */
+    public boolean cancel(int interactionId) {
+        Interaction interaction;
+        synchronized (lock) {
+            interaction = pending.remove(interactionId);
+            if (interaction == null) {
+                return false;
+            }
+            for (Iterator<Upload> it = outbox.iterator(); it.hasNext(); ) {
+                Upload upload = it.next();
+                if (upload.interaction == interaction) {
+                    upload.closeQuietly();
+                    it.remove();
+                }
+            }
+            if (webSocket != null) {
+                webSocket.send(SessionFrames.empty(SessionFrames.CANCEL, interactionId));
+            }
+        }
+        interaction.listener.onCancelled();
+        return true;
+    }
+
+    /**
+     * Abandons every unanswered interaction; their listeners get onCancelled.
+     *
+     * @return number of interactions cancelled
+     */
+    public int cancelAll() {
+        List<Interaction> cancelled;
+        synchronized (lock) {
+            cancelled = new ArrayList<>(pending.values());
+            pending.clear();
+            for (Upload upload : outbox) {
+                upload.closeQuietly();
+            }
+            outbox.clear();
+            if (webSocket != null) {
+                for (Interaction interaction : cancelled) {
+                    webSocket.send(SessionFrames.empty(SessionFrames.CANCEL, interaction.id));
+                }
+            }
+        }
+        for (Interaction interaction : cancelled) {
+            interaction.listener.onCancelled();
+        }
+        return cancelled.size();
+    }
+
+    public void close() {
+        cancelAll();
+        synchronized (lock) {
+            closed = true;
+            if (webSocket != null) {
+                webSocket.close(NORMAL_CLOSURE, null);
+                webSocket = null;
+            }
+            lock.notifyAll();
+        }
+        reconnector.shutdownNow();
+    }
+
+    private int submit(Interaction interaction) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Session closed");
+            }
+            interaction.id = nextInteractionId++;
+            pending.put(interaction.id, interaction);
+            // While disconnected the interaction waits in pending and goes out on reconnect
+            if (webSocket != null) {
+                outbox.addLast(new Upload(interaction, 0, generation));
+                lock.notifyAll();
+            }
+            return interaction.id;
+        }
+    }
+
+    /**
+     * Sender loop: takes one frame's worth of work from the head upload and rotates it to the
+     * back, so a short question is not stuck behind a large clip.
+     */
+    private void pumpOutbox() {
+        while (true) {
+            Upload upload;
+            WebSocket socket;
+            synchronized (lock) {
+                while (!closed && (outbox.isEmpty() || webSocket == null)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                upload = outbox.pollFirst();
+                socket = webSocket;
+            }
+
+            try {
+                while (socket.queueSize() > MAX_QUEUED_BYTES && isCurrent(socket)) {
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            boolean more;
+            try {
+                more = upload.sendNext(socket);
+            } catch (IOException e) {
+                upload.interaction.listener.onError("Could not read media: " + e.getMessage(), e);
+                synchronized (lock) {
+                    pending.remove(upload.interaction.id);
+                }
+                upload.closeQuietly();
+                continue;
+            }
+
+            synchronized (lock) {
+                // Uploads from before a reconnect are replaced by fresh ones, never re-queued
+                if (more && upload.generation == generation && pending.containsKey(upload.interaction.id)) {
+                    outbox.addLast(upload);
+                } else {
+                    upload.closeQuietly();
+                }
+            }
+        }
+    }
+
+    private boolean isCurrent(WebSocket socket) {
+        synchronized (lock) {
+            return webSocket == socket;
+        }
+    }
+
+    private void onConnected(WebSocket socket) {
+        synchronized (lock) {
+            if (closed) {
+                socket.close(NORMAL_CLOSURE, null);
+                return;
+            }
+            webSocket = socket;
+            generation++;
+            reconnectDelayMs = initialReconnectDelayMs;
+            for (Upload upload : outbox) {
+                upload.closeQuietly();
+            }
+            outbox.clear();
+            for (Interaction interaction : pending.values()) {
+                outbox.addLast(new Upload(interaction, interaction.receivedCodePoints(), generation));
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void onDisconnected(WebSocket socket) {
+        long delay;
+        synchronized (lock) {
+            if (webSocket != socket && webSocket != null) {
+                return;
+            }
+            webSocket = null;
+            // onClosing and onFailure can both report the same drop
+            if (closed || reconnectScheduled) {
+                return;
+            }
+            reconnectScheduled = true;
+            delay = reconnectDelayMs;
+            reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+        }
+        reconnector.schedule(() -> {
+            synchronized (lock) {
+                reconnectScheduled = false;
+            }
+            client.newWebSocket(request, new SessionListener());
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onFrame(ByteString frame) {
+        if (frame.size() < SessionFrames.HEADER_SIZE) {
+            return;
+        }
+        int id = SessionFrames.interactionId(frame);
+        Interaction interaction;
+        synchronized (lock) {
+            interaction = pending.get(id);
+            if (interaction == null) {
+                return; // Cancelled or already answered
+            }
+            if (SessionFrames.type(frame) != SessionFrames.RESPONSE) {
+                pending.remove(id);
+            }
+        }
+
+        switch (SessionFrames.type(frame)) {
+            case SessionFrames.RESPONSE:
+                String chunk = SessionFrames.payload(frame).utf8();
+                interaction.response.append(chunk);
+                interaction.listener.onPartialResponse(chunk);
+                break;
+            case SessionFrames.DONE:
+                interaction.listener.onSuccess(interaction.response.toString());
+                break;
+            case SessionFrames.ERROR:
+                interaction.listener.onError("Server error: " + SessionFrames.payload(frame).utf8(), null);
+                break;
+            default:
+                interaction.listener.onError("Unexpected session frame " + SessionFrames.type(frame), null);
+                break;
+        }
+    }
+
+    private final class SessionListener extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            onConnected(webSocket);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+            onFrame(bytes);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(NORMAL_CLOSURE, null);
+            onDisconnected(webSocket);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            onDisconnected(webSocket);
+        }
+    }
+
+    private static final class Interaction {
+        final byte kind;
+        final String text;
+        final File media;
+        final float videoFps;
+        final Listener listener;
+        // Only touched from the WebSocket reader thread
+        final StringBuilder response = new StringBuilder();
+        int id;
+
+        Interaction(byte kind, String text, File media, float videoFps, Listener listener) {
+            this.kind = kind;
+            this.text = text;
+            this.media = media;
+            this.videoFps = videoFps;
+            this.listener = listener;
+        }
+
+        int receivedCodePoints() {
+            return response.codePointCount(0, response.length());
+        }
+    }
+
+    /**
+     * One attempt at sending an interaction: BEGIN, the media in chunks, then END.
+     */
+    private static final class Upload {
+        final Interaction interaction;
+        final int responseOffset;
+        final int generation;
+        private boolean begun;
+        private InputStream media;
+        private byte[] buffer;
+
+        Upload(Interaction interaction, int responseOffset, int generation) {
+            this.interaction = interaction;
+            this.responseOffset = responseOffset;
+            this.generation = generation;
+        }
+
+        /**
+         * Sends the next frame and returns whether more remain. Once the socket refuses a frame it
+         * has failed or closed, so the rest is left to the upload that replaces this one.
+         */
+        boolean sendNext(WebSocket socket) throws IOException {
+            if (!begun) {
+                begun = true;
+                if (!socket.send(SessionFrames.begin(interaction.id, interaction.kind, responseOffset,
+                        interaction.videoFps, interaction.text))) {
+                    return false;
+                }
+                if (interaction.media != null) {
+                    media = new FileInputStream(interaction.media);
+                    buffer = new byte[CHUNK_SIZE];
+                }
+                return true;
+            }
+            if (media != null) {
+                int read = media.read(buffer);
+                if (read > 0) {
+                    if (!socket.send(SessionFrames.media(interaction.id, buffer, read))) {
+                        closeQuietly();
+                        return false;
+                    }
+                    return true;
+                }
+                closeQuietly();
+            }
+            socket.send(SessionFrames.empty(SessionFrames.END, interaction.id));
+            return false;
+        }
+
+        void closeQuietly() {
+            if (media != null) {
+                try {
+                    media.close();
+                } catch (IOException ignored) { }
+                media = null;
+            }
+        }
+    }
+}
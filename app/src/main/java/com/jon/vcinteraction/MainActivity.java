@@ -6,9 +6,12 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.PowerManager;
 import android.provider.MediaStore;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
@@ -45,8 +48,8 @@ import okhttp3.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
@@ -56,6 +59,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 // Add these imports at the top of the file along with other imports
 import java.util.ArrayList;
@@ -71,8 +75,10 @@ public class MainActivity extends AppCompatActivity {
             Manifest.permission.RECORD_AUDIO
     };
     private static final int VIDEO_RECORD_TIME = 5000; // 5 seconds in milliseconds
-    private static final String SERVER_BASE_URL = "http://192.168.31.150:8000/";
-    private static final int BUFFER_SIZE = 8192; // Increased buffer size for faster file operations
+    private static final int MAX_VIDEO_RECORD_SECONDS = 30;
+    private static final long HEALTH_CHECK_INTERVAL_MS = 15000;
+    private static final long GOVERNOR_INTERVAL_MS = 30000;
+    private static final long TEMP_FILE_MAX_AGE_MS = 60 * 60 * 1000;
 
     // Camera components
     private PreviewView previewView;
@@ -85,11 +91,23 @@ public class MainActivity extends AppCompatActivity {
     private Recording recording = null;
 
     // File handling
+    // Kept between interactions so follow-up questions can refer to it by hash
     private File photoFile;
+    private String photoSha256;
     private Uri savedVideoUri = null;
 
     // Network client
-    private OkHttpClient client;
+    private InteractionClient interactionClient;
+    private ServerPool serverPool;
+    private InteractionSession session;
+    private InteractionRequests requests;
+    private final BandwidthMeter uploadMeter = new BandwidthMeter();
+    private final MediaDedupe mediaDedupe = new MediaDedupe();
+    private volatile int uploadProgressQuarter = -1;
+
+    // Adapts capture and upload work to thermal and battery state
+    private ResourceGovernor governor;
+    private boolean cameraRebindPending = false;
 
     // Thread management
     private ExecutorService cameraExecutor;
@@ -102,6 +120,15 @@ public class MainActivity extends AppCompatActivity {
     // Text-to-speech
     private TextToSpeech textToSpeech;
     private boolean ttsInitialized = false;
+    private SpeechScheduler speechScheduler;
+    // Tags each question so its answer can be told apart from older ones
+    private final AtomicLong interactionCounter = new AtomicLong();
+
+    // Persisted stage timings for offline replay; null if the trace could not be opened
+    private TraceRecorder traceRecorder;
+
+    // Locally dispatched voice commands
+    private final VoiceCommandGrammar commandGrammar = VoiceCommandGrammar.createDefault();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -119,8 +146,14 @@ public class MainActivity extends AppCompatActivity {
         cameraExecutor = Executors.newSingleThreadExecutor();
         fileProcessExecutor = Executors.newFixedThreadPool(2);
 
+        // Initialize interaction tracing before anything that records into it
+        initializeTraceRecorder();
+
         // Initialize optimized OkHttpClient
         initializeNetworkClient();
+
+        // Initialize thermal and battery governor
+        initializeResourceGovernor();
         
         // Initialize speech recognition
         initializeSpeechRecognizer();
@@ -146,6 +179,10 @@ public class MainActivity extends AppCompatActivity {
                 @Override
                 public void onReadyForSpeech(Bundle params) {
                     isListening = true;
+                    // Barge-in: stop reading out the last answer once the user starts talking
+                    if (speechScheduler != null) {
+                        speechScheduler.bargeIn(interactionCounter.get());
+                    }
                     Toast.makeText(MainActivity.this, "Listening...", Toast.LENGTH_SHORT).show();
                 }
 
@@ -216,13 +253,14 @@ public class MainActivity extends AppCompatActivity {
                     if (speechResults != null && !speechResults.isEmpty()) {
                         String spokenText = speechResults.get(0);
                         Log.d(TAG, "Speech recognition result: " + spokenText);
-                        
+                        trace(TraceRecorder.SPEECH_RECOGNIZED, upcomingInteraction(), spokenText.length());
+
                         // Process based on available media
                         fileProcessExecutor.execute(() -> {
                             if (savedVideoUri != null) {
                                 processVideoWithText(spokenText);
                             } else if (photoFile != null && photoFile.exists()) {
-                                sendImageAndTextToServer(photoFile, spokenText);
+                                sendImageAndTextToServer(photoFile, photoSha256, spokenText);
                             } else {
                                 sendTextToServer(spokenText);
                             }
@@ -258,25 +296,42 @@ public class MainActivity extends AppCompatActivity {
                 } else {
                     textToSpeech.setSpeechRate(1.0f);
                     textToSpeech.setPitch(1.0f);
-                    ttsInitialized = true;
-                    
+                    speechScheduler = new SpeechScheduler(textToSpeechEngine());
+
                     // Set up progress listener
                     textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
                         @Override
                         public void onStart(String utteranceId) {
-                            Log.d(TAG, "TTS started: " + utteranceId);
+                            speechScheduler.onStart(utteranceId);
+                            trace(TraceRecorder.TTS_STARTED, SpeechScheduler.interactionOf(utteranceId), 0);
+                            Log.d(TAG, "TTS started: " + utteranceId
+                                    + " (first audio " + speechScheduler.getLastTimeToFirstAudioMs() + " ms"
+                                    + ", queued " + speechScheduler.getQueueDepth() + ")");
                         }
 
                         @Override
                         public void onDone(String utteranceId) {
+                            speechScheduler.onEnd(utteranceId);
+                            trace(TraceRecorder.TTS_DONE, SpeechScheduler.interactionOf(utteranceId), 0);
                             Log.d(TAG, "TTS completed: " + utteranceId);
                         }
 
                         @Override
                         public void onError(String utteranceId) {
+                            speechScheduler.onEnd(utteranceId);
                             Log.e(TAG, "TTS error: " + utteranceId);
                         }
+
+                        @Override
+                        public void onStop(String utteranceId, boolean interrupted) {
+                            speechScheduler.onEnd(utteranceId);
+                            Log.d(TAG, "TTS stopped: " + utteranceId);
+                        }
                     });
+
+                    // Load the voice now rather than on the first answer
+                    speechScheduler.warmUp();
+                    ttsInitialized = true;
                 }
             } else {
                 Log.e(TAG, "TTS initialization failed with status: " + status);
@@ -284,21 +339,167 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    private SpeechEngine textToSpeechEngine() {
+        return new SpeechEngine() {
+            @Override
+            public boolean speak(String text, boolean flush, String utteranceId) {
+                Bundle params = new Bundle();
+                params.putString(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+                int queueMode = flush ? TextToSpeech.QUEUE_FLUSH : TextToSpeech.QUEUE_ADD;
+                return textToSpeech.speak(text, queueMode, params, utteranceId) != TextToSpeech.ERROR;
+            }
+
+            @Override
+            public boolean playSilence(long durationMs, String utteranceId) {
+                return textToSpeech.playSilentUtterance(durationMs, TextToSpeech.QUEUE_ADD, utteranceId)
+                        != TextToSpeech.ERROR;
+            }
+
+            @Override
+            public void stop() {
+                textToSpeech.stop();
+            }
+        };
+    }
+
     private void initializeNetworkClient() {
-        // Optimized OkHttpClient with connection pooling and cache
-        client = new OkHttpClient.Builder()
-                .connectionPool(new ConnectionPool(5, 30, TimeUnit.SECONDS))
-                .callTimeout(45, TimeUnit.SECONDS)
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        // Optimized OkHttpClient with connection pooling and bounded timeouts, balanced across servers
+        List<String> serverUrls = Arrays.asList(getResources().getStringArray(R.array.server_base_urls));
+        OkHttpClient client = InteractionClient.defaultClientBuilder().build();
+        serverPool = new ServerPool(serverUrls);
+        serverPool.startHealthChecks(client, HEALTH_CHECK_INTERVAL_MS);
+        interactionClient = new InteractionClient(client, serverPool);
+
+        // Requests are built against the first server and routed by the pool when sent
+        requests = new InteractionRequests(serverUrls.get(0));
+        requests.setUploadMonitor(uploadMeter, this::onUploadProgress);
+        requests.setMediaDedupe(mediaDedupe);
+
+        if (getResources().getBoolean(R.bool.use_interaction_session)) {
+            session = new InteractionSession(client, serverUrls.get(0));
+            session.connect();
+        }
+    }
+
+    private void initializeTraceRecorder() {
+        try {
+            traceRecorder = new TraceRecorder(new File(getFilesDir(), "traces"));
+        } catch (IOException e) {
+            Log.w(TAG, "Interaction tracing disabled", e);
+        }
+    }
+
+    private void trace(byte type, long interactionId, long value) {
+        // Negative ids are utterances outside any interaction, such as the TTS warm-up
+        if (traceRecorder != null && interactionId >= 0) {
+            traceRecorder.record(type, interactionId, value);
+        }
+    }
+
+    /**
+     * Stages before the request is sent belong to the interaction the next send will start.
+     */
+    private long upcomingInteraction() {
+        return interactionCounter.get() + 1;
+    }
+
+    /**
+     * Starts an interaction: assigns its id and traces the request going out.
+     */
+    private long beginInteraction(byte endpoint, long payloadBytes) {
+        long interactionId = interactionCounter.incrementAndGet();
+        if (traceRecorder != null) {
+            traceRecorder.record(TraceRecorder.REQUEST_SENT, interactionId, endpoint, payloadBytes);
+        }
+        return interactionId;
+    }
+
+    private void initializeResourceGovernor() {
+        governor = new ResourceGovernor(deviceSensors());
+        governor.setUploadMeter(uploadMeter);
+        governor.addListener(tier -> {
+            Log.d(TAG, "Resource tier " + tier);
+            applyUploadLimits(tier);
+            runOnUiThread(() -> {
+                // Never swap the recorder out from under a running clip
+                if (recording != null) {
+                    cameraRebindPending = true;
+                } else if (cameraProvider != null) {
+                    bindCameraUseCases();
+                }
+            });
+        });
+        applyUploadLimits(governor.getTier());
+
+        // Leftovers from earlier runs can wait until the device is cool
+        governor.defer(() -> fileProcessExecutor.execute(() -> {
+            int deleted = MediaFiles.sweepTempFiles(getCacheDir(), TEMP_FILE_MAX_AGE_MS, photoFile);
+            Log.d(TAG, "Swept " + deleted + " stale temp files");
+        }));
+        governor.start(GOVERNOR_INTERVAL_MS);
+    }
+
+    private void applyUploadLimits(ResourceGovernor.Tier tier) {
+        interactionClient.setMaxConcurrentUploads(tier.maxConcurrentUploads);
+        requests.setVideoFps(tier.videoFps);
+        if (session != null) {
+            session.setVideoFps(tier.videoFps);
+        }
+    }
+
+    private DeviceSensors deviceSensors() {
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        BatteryManager batteryManager = (BatteryManager) getSystemService(Context.BATTERY_SERVICE);
+        return new DeviceSensors() {
+            @Override
+            public int thermalStatus() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    return powerManager.getCurrentThermalStatus();
+                }
+                return THERMAL_NONE;
+            }
+
+            @Override
+            public float batteryLevel() {
+                int percent = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+                return percent > 0 ? percent / 100f : 1f;
+            }
+
+            @Override
+            public boolean isCharging() {
+                return batteryManager.isCharging();
+            }
+
+            @Override
+            public boolean isPowerSaveMode() {
+                return powerManager.isPowerSaveMode();
+            }
+        };
+    }
+
+    private void onUploadProgress(long bytesWritten, long contentLength) {
+        if (contentLength <= 0) {
+            return;
+        }
+        // Log in quarter steps rather than on every 8 KB write
+        int quarter = (int) (bytesWritten * 4 / contentLength);
+        if (quarter != uploadProgressQuarter) {
+            uploadProgressQuarter = quarter;
+            Log.d(TAG, "Upload " + (quarter * 25) + "% of " + contentLength + " bytes, estimate "
+                    + uploadMeter.getEstimateBytesPerSecond() + " B/s");
+        }
+    }
+
+    private void cancelInFlightRequests() {
+        int cancelled = interactionClient.cancelAll() + (session != null ? session.cancelAll() : 0);
+        if (cancelled > 0) {
+            Log.d(TAG, "Cancelled " + cancelled + " in-flight request(s) for new interaction");
+        }
     }
 
     private void setupButtonListeners() {
         captureButton.setOnClickListener(v -> takePhoto());
-        recordButton.setOnClickListener(v -> captureVideo());
+        recordButton.setOnClickListener(v -> captureVideo(VIDEO_RECORD_TIME));
         micButton.setOnClickListener(v -> startAdvancedSpeechRecognition());
     }
 
@@ -358,7 +559,7 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void captureVideo() {
+    private void captureVideo(int recordTimeMs) {
         if (videoCapture == null) {
             Log.e(TAG, "Video capture not initialized");
             Toast.makeText(this, "Video capture not initialized", Toast.LENGTH_SHORT).show();
@@ -381,6 +582,12 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        // A new interaction makes any pending answer stale
+        cancelInFlightRequests();
+
+        // Shorter clips when the device is hot or low on battery
+        int clipMs = governor.clipLength(recordTimeMs);
+
         // Disable the record button while recording
         recordButton.setEnabled(false);
 
@@ -410,7 +617,7 @@ public class MainActivity extends AppCompatActivity {
                     Log.d(TAG, "Auto-stopping recording after timer");
                     recording.stop();
                 }
-            }, VIDEO_RECORD_TIME);
+            }, clipMs);
 
         } catch (SecurityException e) {
             Log.e(TAG, "Security exception when starting recording", e);
@@ -432,11 +639,15 @@ public class MainActivity extends AppCompatActivity {
     private void handleVideoRecordEvent(VideoRecordEvent videoRecordEvent) {
         if (videoRecordEvent instanceof VideoRecordEvent.Start) {
             Log.d(TAG, "Recording started");
+            trace(TraceRecorder.RECORD_STARTED, upcomingInteraction(), 0);
         } else if (videoRecordEvent instanceof VideoRecordEvent.Finalize) {
             VideoRecordEvent.Finalize finalizeEvent = (VideoRecordEvent.Finalize) videoRecordEvent;
+            trace(TraceRecorder.RECORD_FINISHED, upcomingInteraction(),
+                    finalizeEvent.getRecordingStats().getNumBytesRecorded());
 
             if (!finalizeEvent.hasError()) {
                 savedVideoUri = finalizeEvent.getOutputResults().getOutputUri();
+                fileProcessExecutor.execute(() -> replacePhoto(null, null)); // New clip supersedes the photo
                 Log.d(TAG, "Recording completed: " + savedVideoUri);
                 Toast.makeText(this, "Recording complete", Toast.LENGTH_SHORT).show();
                 startAdvancedSpeechRecognition();
@@ -446,6 +657,10 @@ public class MainActivity extends AppCompatActivity {
                 recordButton.setEnabled(true);
             }
             recording = null;
+            if (cameraRebindPending) {
+                cameraRebindPending = false;
+                bindCameraUseCases();
+            }
         }
     }
 
@@ -464,6 +679,9 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        // A new interaction makes any pending answer stale
+        cancelInFlightRequests();
+
         try {
             // Prepare output options
             ContentValues contentValues = createImageContentValues();
@@ -488,7 +706,9 @@ public class MainActivity extends AppCompatActivity {
                                 // Process file in background
                                 fileProcessExecutor.execute(() -> {
                                     try {
-                                        photoFile = createTempFileFromUri(savedUri, "jpg");
+                                        MessageDigest digest = MediaDedupe.newDigest();
+                                        File newPhoto = createTempFileFromUri(savedUri, "jpg", digest);
+                                        replacePhoto(newPhoto, MediaDedupe.hex(digest.digest()));
                                         if (photoFile != null) {
                                             runOnUiThread(() -> startAdvancedSpeechRecognition());
                                         }
@@ -519,30 +739,20 @@ public class MainActivity extends AppCompatActivity {
         return values;
     }
 
-    private File createTempFileFromUri(Uri uri, String extension) throws IOException {
-        // Create a temporary file with buffered I/O for better performance
-        File tempFile = File.createTempFile("temp_", "." + extension, getCacheDir());
-
-        try (InputStream inputStream = getContentResolver().openInputStream(uri);
-             FileOutputStream outputStream = new FileOutputStream(tempFile)) {
-
-            if (inputStream == null) {
-                throw new IOException("Could not open input stream from URI");
-            }
-
-            // Use larger buffer for faster file operations
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+    private void replacePhoto(File newPhoto, String sha256) {
+        File oldPhoto = photoFile;
+        photoFile = newPhoto;
+        photoSha256 = sha256;
+        if (oldPhoto != null && !oldPhoto.equals(newPhoto) && oldPhoto.exists()) {
+            oldPhoto.delete();
+        }
+    }
 
-            return tempFile;
-        } catch (Exception e) {
+    private File createTempFileFromUri(Uri uri, String extension, MessageDigest digest) throws IOException {
+        try {
+            return MediaFiles.copyToTempFile(getContentResolver().openInputStream(uri), getCacheDir(), extension, digest);
+        } catch (IOException e) {
             Log.e(TAG, "Error creating temp file from URI", e);
-            if (tempFile.exists()) {
-                tempFile.delete();
-            }
             throw e;
         }
     }
@@ -586,24 +796,27 @@ public class MainActivity extends AppCompatActivity {
     private void handleVoiceCommandResult(Intent data) {
         List<String> results = data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
         if (results != null && !results.isEmpty()) {
-            String spokenText = results.get(0).toLowerCase();
-            Log.d(TAG, "Voice command: " + spokenText);
+            float[] confidences = data.getFloatArrayExtra(RecognizerIntent.EXTRA_CONFIDENCE_SCORES);
+            VoiceCommandGrammar.Match command = commandGrammar.match(results, confidences);
+            Log.d(TAG, "Voice command: " + results + " -> " + command);
 
-            if (spokenText.contains("capture")) {
+            if (command != null && VoiceCommandGrammar.COMMAND_CAPTURE_PHOTO.equals(command.command)) {
                 // Execute capture photo command
                 Toast.makeText(this, "Voice command: Capture photo", Toast.LENGTH_SHORT).show();
                 takePhoto();
-            } else if (spokenText.contains("record")) {
+            } else if (command != null && VoiceCommandGrammar.COMMAND_RECORD_VIDEO.equals(command.command)) {
                 // Execute record video command
                 Toast.makeText(this, "Voice command: Record video", Toast.LENGTH_SHORT).show();
-                captureVideo();
+                captureVideo(parseRecordTime(command.slot(VoiceCommandGrammar.SLOT_SECONDS)));
             } else {
                 // Process as regular text input
+                String spokenText = results.get(0).toLowerCase();
+                trace(TraceRecorder.SPEECH_RECOGNIZED, upcomingInteraction(), spokenText.length());
                 fileProcessExecutor.execute(() -> {
                     if (savedVideoUri != null) {
                         processVideoWithText(spokenText);
                     } else if (photoFile != null && photoFile.exists()) {
-                        sendImageAndTextToServer(photoFile, spokenText);
+                        sendImageAndTextToServer(photoFile, photoSha256, spokenText);
                     } else {
                         sendTextToServer(spokenText);
                     }
@@ -614,18 +827,32 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private int parseRecordTime(String seconds) {
+        if (seconds == null) {
+            return VIDEO_RECORD_TIME;
+        }
+        try {
+            int value = Integer.parseInt(seconds);
+            // Longer clips than the app records are clamped rather than ignored
+            return value > 0 ? Math.min(value, MAX_VIDEO_RECORD_SECONDS) * 1000 : VIDEO_RECORD_TIME;
+        } catch (NumberFormatException e) {
+            return VIDEO_RECORD_TIME;
+        }
+    }
+
     private void handleSpeechRecognitionResult(Intent data) {
         List<String> results = data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
         if (results != null && !results.isEmpty()) {
             String spokenText = results.get(0);
             Log.d(TAG, "Speech recognition result: " + spokenText);
+            trace(TraceRecorder.SPEECH_RECOGNIZED, upcomingInteraction(), spokenText.length());
 
             // Process based on available media
             fileProcessExecutor.execute(() -> {
                 if (savedVideoUri != null) {
                     processVideoWithText(spokenText);
                 } else if (photoFile != null && photoFile.exists()) {
-                    sendImageAndTextToServer(photoFile, spokenText);
+                    sendImageAndTextToServer(photoFile, photoSha256, spokenText);
                 } else {
                     sendTextToServer(spokenText);
                 }
@@ -637,9 +864,10 @@ public class MainActivity extends AppCompatActivity {
 
     private void processVideoWithText(String text) {
         try {
-            File videoFile = createTempFileFromUri(savedVideoUri, "mp4");
+            MessageDigest digest = MediaDedupe.newDigest();
+            File videoFile = createTempFileFromUri(savedVideoUri, "mp4", digest);
             if (videoFile != null && videoFile.exists()) {
-                sendVideoAndTextToServer(videoFile, text);
+                sendVideoAndTextToServer(videoFile, MediaDedupe.hex(digest.digest()), text);
             } else {
                 runOnUiThread(() -> {
                     Toast.makeText(this, "Could not process video file", Toast.LENGTH_SHORT).show();
@@ -658,92 +886,105 @@ public class MainActivity extends AppCompatActivity {
 
     private void sendTextToServer(String text) {
         Log.d(TAG, "Sending text to server: " + text);
-
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("text", text)
-                .build();
-
-        Request request = new Request.Builder()
-                .url(SERVER_BASE_URL + "text/")
-                .post(requestBody)
-                .build();
-
-        sendRequest(request, null);
+        if (session != null) {
+            session.cancelAll();
+            long interactionId = beginInteraction(sessionEndpoint(TraceRecorder.ENDPOINT_TEXT),
+                    text.getBytes(StandardCharsets.UTF_8).length);
+            session.sendText(text, responseListener(interactionId, null, "session text"));
+        } else {
+            sendRequest(requests.text(text), null);
+        }
     }
 
-    private void sendImageAndTextToServer(File imageFile, String text) {
-        Log.d(TAG, "Sending image and text to server");
-
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("image", imageFile.getName(),
-                        RequestBody.create(imageFile, MediaType.parse("image/jpeg")))
-                .addFormDataPart("text", text)
-                .build();
-
-        Request request = new Request.Builder()
-                .url(SERVER_BASE_URL + "image-text/")
-                .post(requestBody)
-                .build();
-
-        sendRequest(request, imageFile);
+    private void sendImageAndTextToServer(File imageFile, String sha256, String text) {
+        Log.d(TAG, "Sending image and text to server" + (mediaDedupe.isConfirmed(sha256) ? " (by reference)" : ""));
+        // The photo stays on disk for follow-up questions; it is deleted when replaced
+        if (session != null) {
+            session.cancelAll();
+            long interactionId = beginInteraction(sessionEndpoint(TraceRecorder.ENDPOINT_IMAGE_TEXT),
+                    imageFile.length());
+            session.sendImage(imageFile, text, responseListener(interactionId, null, "session image"));
+        } else {
+            sendRequest(requests.imageAndText(imageFile, sha256, text), null);
+        }
     }
 
-    private void sendVideoAndTextToServer(File videoFile, String text) {
+    private void sendVideoAndTextToServer(File videoFile, String sha256, String text) {
         Log.d(TAG, "Sending video and text to server");
+        if (session != null) {
+            session.cancelAll();
+            long interactionId = beginInteraction(sessionEndpoint(TraceRecorder.ENDPOINT_VIDEO_TEXT),
+                    videoFile.length());
+            session.sendVideo(videoFile, text, responseListener(interactionId, videoFile, "session video"));
+        } else {
+            sendRequest(requests.videoAndText(videoFile, sha256, text), videoFile);
+        }
+    }
 
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("video", videoFile.getName(),
-                        RequestBody.create(videoFile, MediaType.parse("video/mp4")))
-                .addFormDataPart("text", text)
-                .build();
+    private void sendRequest(Request request, File tempFile) {
+        // Newest question wins; an older answer still in flight would only be spoken late
+        long interactionId = beginInteraction(TraceRecorder.endpointCode(request.url().encodedPath()),
+                contentLength(request));
+        interactionClient.supersede(request, responseListener(interactionId, tempFile, request.url().toString()));
+    }
 
-        Request request = new Request.Builder()
-                .url(SERVER_BASE_URL + "video-text/")
-                .post(requestBody)
-                .build();
+    private static byte sessionEndpoint(byte endpoint) {
+        return (byte) (endpoint | TraceRecorder.ENDPOINT_SESSION);
+    }
 
-        sendRequest(request, videoFile);
+    private static long contentLength(Request request) {
+        try {
+            return request.body() != null ? request.body().contentLength() : 0;
+        } catch (IOException e) {
+            return -1;
+        }
     }
 
-    private void sendRequest(Request request, File tempFile) {
-        client.newCall(request).enqueue(new Callback() {
+    private InteractionSession.Listener responseListener(long interactionId, File tempFile, String description) {
+        return new InteractionSession.Listener() {
             @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                Log.e(TAG, "Request failed", e);
-                cleanup(tempFile, "Request failed: " + e.getMessage());
+            public void onPartialResponse(String chunk) {
+                // The answer is spoken whole from onSuccess
             }
 
             @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String responseBody = response.body() != null ? response.body().string() : "";
-                    Log.d(TAG, "Server response: " + responseBody);
-                    processSuccessResponse(responseBody, tempFile);
-                } else {
-                    String errorBody = "";
-                    try {
-                        if (response.body() != null) {
-                            errorBody = response.body().string();
-                        }
-                    } catch (Exception ignored) { }
+            public void onSuccess(String responseBody) {
+                Log.d(TAG, "Server response: " + responseBody);
+                trace(TraceRecorder.RESPONSE_RECEIVED, interactionId,
+                        responseBody.getBytes(StandardCharsets.UTF_8).length);
+                processSuccessResponse(interactionId, responseBody, tempFile);
+            }
 
-                    cleanup(tempFile, "Server error: " + response.code() +
-                            (errorBody.isEmpty() ? "" : " - " + errorBody));
+            @Override
+            public void onServerTiming(long processingMs) {
+                trace(TraceRecorder.SERVER_PROCESSED, interactionId, processingMs);
+            }
+
+            @Override
+            public void onError(String errorMessage, IOException cause) {
+                Log.e(TAG, errorMessage, cause);
+                trace(TraceRecorder.REQUEST_FAILED, interactionId, 0);
+                cleanup(tempFile, errorMessage);
+            }
+
+            @Override
+            public void onCancelled() {
+                Log.d(TAG, "Request cancelled: " + description);
+                trace(TraceRecorder.REQUEST_CANCELLED, interactionId, 0);
+                if (tempFile != null && tempFile.exists()) {
+                    fileProcessExecutor.execute(() -> tempFile.delete());
                 }
             }
-        });
+        };
     }
 
-    private void processSuccessResponse(String responseBody, File tempFile) {
+    private void processSuccessResponse(long interactionId, String responseBody, File tempFile) {
         runOnUiThread(() -> {
             // Show toast with response
             Toast.makeText(MainActivity.this, "Server: " + responseBody, Toast.LENGTH_LONG).show();
 
             // Read response aloud using TextToSpeech
-            speakResponseWithTTS(responseBody);
+            speakResponseWithTTS(interactionId, responseBody);
 
             // Enable record button
             recordButton.setEnabled(true);
@@ -755,7 +996,7 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void speakResponseWithTTS(String text) {
+    private void speakResponseWithTTS(long interactionId, String text) {
         if (!ttsInitialized) {
             Log.e(TAG, "TTS not initialized");
             return;
@@ -766,49 +1007,30 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // Split text into manageable chunks
-        List<String> chunks = new ArrayList<>();
-        int chunkSize = 3900; // Leave buffer below 4000 char limit
-        
-        // Split by sentences to maintain natural speech breaks
-        String[] sentences = text.split("(?<=[.!?])\\s+");
-        StringBuilder currentChunk = new StringBuilder();
-        
-        for (String sentence : sentences) {
-            if (currentChunk.length() + sentence.length() > chunkSize) {
-                chunks.add(currentChunk.toString().trim());
-                currentChunk = new StringBuilder();
-            }
-            currentChunk.append(sentence).append(" ");
-        }
-        
-        // Add the last chunk if not empty
-        if (currentChunk.length() > 0) {
-            chunks.add(currentChunk.toString().trim());
-        }
-
-        // Speak all chunks in sequence
-        for (int i = 0; i < chunks.size(); i++) {
-            String chunk = chunks.get(i);
-            String utteranceId = "chunk_" + i;
-            
-            // Use QUEUE_ADD to speak chunks in sequence
-            Bundle params = new Bundle();
-            params.putString(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
-            
-            int result = textToSpeech.speak(chunk, 
-                                          TextToSpeech.QUEUE_ADD, 
-                                          params, 
-                                          utteranceId);
-            
-            if (result == TextToSpeech.ERROR) {
-                Log.e(TAG, "Error speaking chunk " + i);
-            }
+        // Chunks are queued under this interaction; anything older still queued is flushed
+        if (!speechScheduler.speak(interactionId, text)) {
+            Log.w(TAG, "Not speaking stale or interrupted answer " + interactionId);
         }
     }
 
     @Override
     protected void onDestroy() {
+        if (interactionClient != null) {
+            interactionClient.cancelAll();
+        }
+        if (serverPool != null) {
+            serverPool.stopHealthChecks();
+        }
+        if (governor != null) {
+            governor.stop();
+        }
+        if (session != null) {
+            session.close();
+        }
+        replacePhoto(null, null);
+        if (traceRecorder != null) {
+            traceRecorder.close();
+        }
         if (textToSpeech != null) {
             textToSpeech.stop();
             textToSpeech.shutdown();
@@ -852,10 +1074,18 @@ public class MainActivity extends AppCompatActivity {
         Preview preview = new Preview.Builder().build();
         preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
-        imageCapture = new ImageCapture.Builder().build();
+        // Stills stay on the low-latency path at every tier; only video quality steps down with the
+        // governor's tier as the device heats up
+        imageCapture = new ImageCapture.Builder()
+                .setCaptureMode(ImageCapture.CAPTURE_MODE_MINIMIZE_LATENCY)
+                .build();
+
+        ResourceGovernor.Tier tier = governor.getTier();
 
+        Quality[] qualities = {Quality.HIGHEST, Quality.FHD, Quality.HD, Quality.SD};
+        Quality quality = qualities[Math.min(tier.qualityStep, qualities.length - 1)];
         Recorder recorder = new Recorder.Builder()
-                .setQualitySelector(QualitySelector.from(Quality.HIGHEST, FallbackStrategy.higherQualityOrLowerThan(Quality.SD)))
+                .setQualitySelector(QualitySelector.from(quality, FallbackStrategy.lowerQualityOrHigherThan(quality)))
                 .build();
         videoCapture = VideoCapture.withOutput(recorder);
 
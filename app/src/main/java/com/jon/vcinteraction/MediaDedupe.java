@@ -0,0 +1,115 @@
+package com.jon.vcinteraction;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+/**
+ * Content-addressed media uploads. Media is identified by its SHA-256, and hashes a server has
+ * confirmed are kept in a small LRU together with that server's origin, so follow-up questions
+ * about the same photo or clip send a hash reference to the server that has the bytes. Each pool
+ * member keeps its own media cache, so references are pinned to the confirming server. A server
+ * that no longer has the media answers {@link #MEDIA_UNKNOWN} and the client falls back to the
+ * full upload.
+ */
+public class MediaDedupe {
+    public static final String HASH_ALGORITHM = "SHA-256";
+    public static final int MEDIA_UNKNOWN = 409;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Hash -> origin of the server that confirmed it
+    private final Map<String, String> confirmed;
+
+    public MediaDedupe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MediaDedupe(final int capacity) {
+        this.confirmed = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * "scheme://host:port" identifying the server a request went to.
+     */
+    public static String origin(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    public boolean isConfirmed(String hash) {
+        return confirmedOrigin(hash) != null;
+    }
+
+    /**
+     * Origin of the server holding the media, or null if no server has confirmed it.
+     */
+    public synchronized String confirmedOrigin(String hash) {
+        // get() rather than containsKey() so a lookup refreshes the entry's recency
+        return confirmed.get(hash);
+    }
+
+    synchronized void confirm(String hash, String origin) {
+        confirmed.put(hash, origin);
+    }
+
+    synchronized void forget(String hash) {
+        confirmed.remove(hash);
+    }
+
+    /**
+     * Request tag linking a media request to its hash and, for hash-only references, the full
+     * upload to send if the server misses.
+     */
+    public final class Upload {
+        public final String hash;
+        public final Request fullUpload;
+        // For references, the server that confirmed the media
+        public final HttpUrl origin;
+
+        Upload(String hash, Request fullUpload, String origin) {
+            this.hash = hash;
+            this.fullUpload = fullUpload;
+            this.origin = origin != null ? HttpUrl.parse(origin + "/") : null;
+        }
+
+        public boolean isReference() {
+            return fullUpload != null;
+        }
+
+        void onAccepted(HttpUrl servedBy) {
+            confirm(hash, origin(servedBy));
+        }
+
+        void onMissed() {
+            forget(hash);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.jon.vcinteraction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Android-free copy helpers behind MainActivity's temp file handling, kept separate so the copy
+ * strategies can be benchmarked on a plain JVM.
+ */
+public final class MediaFiles {
+    public static final int BUFFER_SIZE = 8192;
+
+    private MediaFiles() {
+    }
+
+    /**
+     * Copies the stream into a new temp file in the given directory, deleting it on failure.
+     */
+    public static File copyToTempFile(InputStream inputStream, File directory, String extension) throws IOException {
+        return copyToTempFile(inputStream, directory, extension, null);
+    }
+
+    /**
+     * Same as {@link #copyToTempFile(InputStream, File, String)}, also feeding every byte to the
+     * digest. Streams are hashed in the same pass that copies them; seekable files keep the channel
+     * transfer and are hashed from the temp file afterwards.
+     */
+    public static File copyToTempFile(InputStream inputStream, File directory, String extension,
+                                      MessageDigest digest) throws IOException {
+        if (inputStream == null) {
+            throw new IOException("Could not open input stream from URI");
+        }
+        File tempFile = File.createTempFile("temp_", "." + extension, directory);
+        boolean channel = inputStream instanceof FileInputStream && isSeekableFile((FileInputStream) inputStream);
+        try (InputStream in = digest != null && !channel ? new DigestInputStream(inputStream, digest) : inputStream) {
+            copy(in, tempFile);
+            if (digest != null && channel) {
+                digest(tempFile, digest);
+            }
+            return tempFile;
+        } catch (IOException | RuntimeException e) {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes temp files left in the directory by {@link #copyToTempFile} that are older than the
+     * given age, e.g. after a crash skipped their cleanup.
+     *
+     * @param keep file still in use, or null
+     * @return number of files deleted
+     */
+    public static int sweepTempFiles(File directory, long olderThanMs, File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("temp_"));
+        if (files == null) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - olderThanMs;
+        int deleted = 0;
+        for (File file : files) {
+            if (!file.equals(keep) && file.lastModified() < cutoff && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Copies with a channel transfer when the source is a seekable file with a known size (content
+     * resolver streams for MediaStore usually are), otherwise with a buffered loop. Pipe-backed
+     * descriptors from streaming providers cannot seek and report size 0, so they take the loop.
+     */
+    public static long copy(InputStream in, File target) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            if (in instanceof FileInputStream && isSeekableFile((FileInputStream) in)) {
+                return channelCopy((FileInputStream) in, out);
+            }
+            return streamCopy(in, out);
+        }
+    }
+
+    private static boolean isSeekableFile(FileInputStream in) {
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.size() > 0 && channel.position() < channel.size();
+        } catch (IOException e) {
+            return false; // "Illegal seek" on pipes and sockets
+        }
+    }
+
+    private static void digest(File file, MessageDigest digest) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    public static long streamCopy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    public static long channelCopy(FileInputStream in, FileOutputStream out) throws IOException {
+        FileChannel source = in.getChannel();
+        FileChannel target = out.getChannel();
+        long position = source.position();
+        long size = source.size();
+        long total = 0;
+        // transferTo may move fewer bytes than asked, so loop until the source is drained
+        while (position + total < size) {
+            long transferred = source.transferTo(position + total, size - position - total, target);
+            if (transferred <= 0) {
+                break;
+            }
+            total += transferred;
+        }
+        source.position(position + total);
+        return total;
+    }
+
+    public static long okioCopy(InputStream in, File target) throws IOException {
+        try (Source source = Okio.source(in);
+             BufferedSink sink = Okio.buffer(Okio.sink(target))) {
+            return sink.writeAll(source);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jon.vcinteraction;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * Request body wrapper that reports upload progress, feeds a {@link BandwidthMeter} and can
+ * optionally cap the upload rate.
+ */
+public class ProgressRequestBody extends RequestBody {
+    private static final long THROTTLE_CHUNK_BYTES = 8192;
+
+    public interface Listener {
+        void onProgress(long bytesWritten, long contentLength);
+    }
+
+    private final RequestBody delegate;
+    private final Listener listener;
+    private final BandwidthMeter meter;
+    private final long maxBytesPerSecond;
+
+    public ProgressRequestBody(RequestBody delegate, Listener listener, BandwidthMeter meter) {
+        this(delegate, listener, meter, 0);
+    }
+
+    /**
+     * @param maxBytesPerSecond upload rate cap, or 0 for no cap
+     */
+    public ProgressRequestBody(RequestBody delegate, Listener listener, BandwidthMeter meter,
+                               long maxBytesPerSecond) {
+        this.delegate = delegate;
+        this.listener = listener;
+        this.meter = meter;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return delegate.isOneShot();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BandwidthMeter.Transfer transfer = meter != null ? meter.startTransfer() : null;
+        CountingSink countingSink = new CountingSink(sink, contentLength(), transfer);
+        BufferedSink bufferedSink = Okio.buffer(countingSink);
+        try {
+            delegate.writeTo(bufferedSink);
+            bufferedSink.flush();
+        } finally {
+            if (transfer != null) {
+                transfer.end();
+            }
+        }
+    }
+
+    private final class CountingSink extends ForwardingSink {
+        private final long contentLength;
+        private final BandwidthMeter.Transfer transfer;
+        private final long startNanos = System.nanoTime();
+        private long bytesWritten;
+
+        CountingSink(BufferedSink delegate, long contentLength, BandwidthMeter.Transfer transfer) {
+            super(delegate);
+            this.contentLength = contentLength;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            long remaining = byteCount;
+            while (remaining > 0) {
+                long chunk = maxBytesPerSecond > 0 ? Math.min(remaining, THROTTLE_CHUNK_BYTES) : remaining;
+                throttle(chunk);
+                super.write(source, chunk);
+                remaining -= chunk;
+                bytesWritten += chunk;
+                if (transfer != null) {
+                    transfer.onBytesTransferred(chunk);
+                }
+                if (listener != null) {
+                    listener.onProgress(bytesWritten, contentLength);
+                }
+            }
+        }
+
+        private void throttle(long nextChunk) throws InterruptedIOException {
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+            long earliestNanos = startNanos + (bytesWritten + nextChunk) * 1_000_000_000L / maxBytesPerSecond;
+            long waitNanos = earliestNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload interrupted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.jon.vcinteraction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps capture quality, clip length, video frame sampling and upload concurrency down as the
+ * device heats up, runs low on battery or the uplink slows, and back up once conditions have
+ * stayed better for a while. Non-urgent work is deferred until the device is cool and not short on power, so a long
+ * session does not spend its thermal budget on housekeeping.
+ */
+public class ResourceGovernor {
+    private static final float LOW_BATTERY = 0.3f;
+    private static final float CRITICAL_BATTERY = 0.15f;
+    private static final long RECOVERY_HOLD_MS = 60000;
+    // Upload rates below which clips are made smaller so they still arrive in a few seconds
+    private static final long SLOW_UPLINK_BYTES_PER_SECOND = 1024 * 1024;
+    private static final long VERY_SLOW_UPLINK_BYTES_PER_SECOND = 256 * 1024;
+
+    public enum Tier {
+        // Voice commands can ask for clips up to 30 s; only degraded tiers shorten them
+        FULL(0, 30000, 1.0f, 4),
+        REDUCED(1, 5000, 1.0f, 2),
+        LOW(2, 3000, 0.5f, 1),
+        MINIMAL(3, 2000, 0.5f, 1);
+
+        /** Capture quality steps below the highest the camera supports. */
+        public final int qualityStep;
+        public final int maxClipMs;
+        /** Frames per second the server samples from uploaded clips. */
+        public final float videoFps;
+        public final int maxConcurrentUploads;
+
+        Tier(int qualityStep, int maxClipMs, float videoFps, int maxConcurrentUploads) {
+            this.qualityStep = qualityStep;
+            this.maxClipMs = maxClipMs;
+            this.videoFps = videoFps;
+            this.maxConcurrentUploads = maxConcurrentUploads;
+        }
+    }
+
+    public interface Listener {
+        void onTierChanged(Tier tier);
+    }
+
+    private final DeviceSensors sensors;
+    private final Clock clock;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final ArrayDeque<Runnable> deferred = new ArrayDeque<>();
+    private Tier tier = Tier.FULL;
+    private long betterSinceNanos = -1;
+    private BandwidthMeter uploadMeter;
+    private ScheduledExecutorService poller;
+
+    public ResourceGovernor(DeviceSensors sensors) {
+        this(sensors, Clock.SYSTEM);
+    }
+
+    public ResourceGovernor(DeviceSensors sensors, Clock clock) {
+        this.sensors = sensors;
+        this.clock = clock;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Also steps down while the measured upload rate is low.
+     */
+    public synchronized void setUploadMeter(BandwidthMeter uploadMeter) {
+        this.uploadMeter = uploadMeter;
+    }
+
+    public synchronized Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * Caps a requested clip length to what the current tier allows.
+     */
+    public synchronized int clipLength(int requestedMs) {
+        return Math.min(requestedMs, tier.maxClipMs);
+    }
+
+    /**
+     * Queues work that can wait; it runs on the evaluating thread once conditions allow.
+     */
+    public synchronized void defer(Runnable task) {
+        deferred.addLast(task);
+    }
+
+    public synchronized int deferredCount() {
+        return deferred.size();
+    }
+
+    /**
+     * Reads the sensors, moves the tier and runs deferred work if the device can afford it.
+     */
+    public Tier evaluate() {
+        Tier changed = null;
+        List<Listener> toNotify;
+        List<Runnable> toRun = new ArrayList<>();
+        synchronized (this) {
+            Tier target = targetTier();
+            long now = clock.nanoTime();
+            if (target.ordinal() > tier.ordinal()) {
+                // Back off at once when things get worse
+                changed = target;
+                betterSinceNanos = -1;
+            } else if (target.ordinal() < tier.ordinal()) {
+                // Recover one step at a time, each after a quiet hold period
+                if (betterSinceNanos < 0) {
+                    betterSinceNanos = now;
+                } else if (now - betterSinceNanos >= TimeUnit.MILLISECONDS.toNanos(RECOVERY_HOLD_MS)) {
+                    changed = Tier.values()[tier.ordinal() - 1];
+                    betterSinceNanos = now;
+                }
+            } else {
+                betterSinceNanos = -1;
+            }
+            if (changed != null) {
+                tier = changed;
+            }
+            toNotify = new ArrayList<>(listeners);
+
+            if (canRunDeferredWork()) {
+                toRun.addAll(deferred);
+                deferred.clear();
+            }
+        }
+
+        if (changed != null) {
+            for (Listener listener : toNotify) {
+                listener.onTierChanged(changed);
+            }
+        }
+        for (Runnable task : toRun) {
+            task.run();
+        }
+        return changed != null ? changed : getTier();
+    }
+
+    private Tier targetTier() {
+        Tier target;
+        int thermal = sensors.thermalStatus();
+        if (thermal >= DeviceSensors.THERMAL_SEVERE) {
+            target = Tier.MINIMAL;
+        } else if (thermal == DeviceSensors.THERMAL_MODERATE) {
+            target = Tier.LOW;
+        } else if (thermal == DeviceSensors.THERMAL_LIGHT) {
+            target = Tier.REDUCED;
+        } else {
+            target = Tier.FULL;
+        }
+
+        if (!sensors.isCharging()) {
+            float battery = sensors.batteryLevel();
+            if (battery < CRITICAL_BATTERY) {
+                target = max(target, Tier.LOW);
+            } else if (battery < LOW_BATTERY || sensors.isPowerSaveMode()) {
+                target = max(target, Tier.REDUCED);
+            }
+        }
+
+        long uplink = uploadMeter != null ? uploadMeter.getEstimateBytesPerSecond() : -1;
+        if (uplink >= 0 && uplink < VERY_SLOW_UPLINK_BYTES_PER_SECOND) {
+            target = max(target, Tier.LOW);
+        } else if (uplink >= 0 && uplink < SLOW_UPLINK_BYTES_PER_SECOND) {
+            target = max(target, Tier.REDUCED);
+        }
+        return target;
+    }
+
+    private boolean canRunDeferredWork() {
+        return tier == Tier.FULL || (tier == Tier.REDUCED && sensors.isCharging());
+    }
+
+    private static Tier max(Tier a, Tier b) {
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    /**
+     * Evaluates at a fixed interval on a background thread, starting immediately.
+     */
+    public synchronized void start(long intervalMs) {
+        if (poller != null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor();
+        poller.scheduleWithFixedDelay(this::evaluate, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.jon.vcinteraction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Set of interchangeable inference servers. Requests are routed with power-of-two-choices over
+ * healthy backends, weighing each backend's EWMA latency by its outstanding requests. Backends
+ * are marked down after consecutive failures (passive) and probed periodically (active).
+ */
+public class ServerPool {
+    private static final int FAILURES_BEFORE_DOWN = 3;
+    private static final double LATENCY_SMOOTHING = 0.3;
+    private static final long HEALTH_CHECK_TIMEOUT_MS = 2000;
+
+    private final List<Backend> backends;
+    private final long downCooldownNanos;
+    private ScheduledExecutorService healthChecker;
+
+    public ServerPool(List<String> baseUrls) {
+        this(baseUrls, TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * @param downCooldownMs how long a backend marked down is skipped before it is tried again
+     */
+    public ServerPool(List<String> baseUrls, long downCooldownMs) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException("Server pool needs at least one backend");
+        }
+        this.downCooldownNanos = TimeUnit.MILLISECONDS.toNanos(downCooldownMs);
+        List<Backend> list = new ArrayList<>();
+        for (String baseUrl : baseUrls) {
+            list.add(new Backend(HttpUrl.get(baseUrl), downCooldownNanos));
+        }
+        this.backends = Collections.unmodifiableList(list);
+    }
+
+    public List<Backend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Picks a backend for the next request, or null when every backend is excluded. When no
+     * backend is healthy the least recently failed one is returned rather than failing outright.
+     */
+    public Backend choose(Set<Backend> exclude) {
+        long now = System.nanoTime();
+        List<Backend> candidates = new ArrayList<>();
+        Backend fallback = null;
+        for (Backend backend : backends) {
+            if (exclude.contains(backend)) {
+                continue;
+            }
+            if (backend.isAvailable(now, downCooldownNanos)) {
+                candidates.add(backend);
+            } else if (fallback == null || backend.downSince < fallback.downSince) {
+                fallback = backend;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return fallback;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Backend a = candidates.get(first);
+        Backend b = candidates.get(second);
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    /**
+     * The backend serving the URL's scheme, host and port, or null if it is not in the pool.
+     */
+    public Backend find(HttpUrl url) {
+        for (Backend backend : backends) {
+            HttpUrl base = backend.baseUrl;
+            if (base.scheme().equals(url.scheme()) && base.host().equals(url.host()) && base.port() == url.port()) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the backend is healthy or its down cooldown has passed.
+     */
+    public boolean isAvailable(Backend backend) {
+        return backend.isAvailable(System.nanoTime(), downCooldownNanos);
+    }
+
+    /**
+     * Points the request at the backend, keeping its path and query. Backends are expected to
+     * serve the same endpoints.
+     */
+    public Request route(Request request, Backend backend) {
+        HttpUrl url = request.url().newBuilder()
+                .scheme(backend.baseUrl.scheme())
+                .host(backend.baseUrl.host())
+                .port(backend.baseUrl.port())
+                .build();
+        return request.newBuilder().url(url).build();
+    }
+
+    /**
+     * Starts probing every backend at a fixed interval. Any HTTP answer counts as alive; only
+     * connection failures and timeouts count against the backend.
+     */
+    public synchronized void startHealthChecks(OkHttpClient client, long intervalMs) {
+        if (healthChecker != null) {
+            return;
+        }
+        // Own dispatcher so probes never wait behind, or count against, interaction limits
+        OkHttpClient probeClient = client.newBuilder()
+                .dispatcher(new Dispatcher())
+                .callTimeout(HEALTH_CHECK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        healthChecker = Executors.newSingleThreadScheduledExecutor();
+        healthChecker.scheduleWithFixedDelay(() -> {
+            for (Backend backend : backends) {
+                probe(probeClient, backend);
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopHealthChecks() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    private void probe(OkHttpClient client, Backend backend) {
+        Request request = new Request.Builder().url(backend.baseUrl).head().build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                backend.onFailure();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                backend.onProbeSuccess();
+            }
+        });
+    }
+
+    /**
+     * One inference server and its routing statistics.
+     */
+    public static final class Backend {
+        private final HttpUrl baseUrl;
+        private final long downCooldownNanos;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private double ewmaLatencyMs = -1;
+        private int consecutiveFailures;
+        private long downSince = -1;
+
+        Backend(HttpUrl baseUrl, long downCooldownNanos) {
+            this.baseUrl = baseUrl;
+            this.downCooldownNanos = downCooldownNanos;
+        }
+
+        public HttpUrl getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public synchronized double getEwmaLatencyMs() {
+            return ewmaLatencyMs;
+        }
+
+        public synchronized boolean isHealthy() {
+            return downSince < 0;
+        }
+
+        void onStart() {
+            outstanding.incrementAndGet();
+        }
+
+        void onSuccess(long latencyNanos) {
+            outstanding.decrementAndGet();
+            recordSuccess(latencyNanos);
+        }
+
+        void onFailure(boolean counted) {
+            outstanding.decrementAndGet();
+            if (counted) {
+                onFailure();
+            }
+        }
+
+        /**
+         * Ends a request without affecting health, e.g. when it was cancelled.
+         */
+        void onFinish() {
+            outstanding.decrementAndGet();
+        }
+
+        private synchronized void onProbeSuccess() {
+            // Probes only bring a backend back; their latency is not representative of inference
+            consecutiveFailures = 0;
+            downSince = -1;
+        }
+
+        private synchronized void recordSuccess(long latencyNanos) {
+            double latencyMs = latencyNanos / 1e6;
+            ewmaLatencyMs = ewmaLatencyMs < 0 ? latencyMs
+                    : LATENCY_SMOOTHING * latencyMs + (1 - LATENCY_SMOOTHING) * ewmaLatencyMs;
+            consecutiveFailures = 0;
+            downSince = -1;
+        }
+
+        private synchronized void onFailure() {
+            consecutiveFailures++;
+            long now = System.nanoTime();
+            // A failure after the cooldown means the retry found it still dead: start a new cooldown
+            if (consecutiveFailures >= FAILURES_BEFORE_DOWN
+                    && (downSince < 0 || now - downSince >= downCooldownNanos)) {
+                downSince = now;
+            }
+        }
+
+        private synchronized boolean isAvailable(long now, long cooldownNanos) {
+            return downSince < 0 || now - downSince >= cooldownNanos;
+        }
+
+        private synchronized double cost() {
+            // Unmeasured backends look fast so real traffic measures them early
+            return Math.max(ewmaLatencyMs, 1) * (outstanding.get() + 1);
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl + " ewma=" + getEwmaLatencyMs() + "ms outstanding=" + getOutstanding()
+                    + (isHealthy() ? "" : " down");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jon.vcinteraction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import okio.ByteString;
+
+/**
+ * Binary framing for {@link InteractionSession}. Every frame is
+ * <pre>type (1 byte) | interaction id (4 bytes, big-endian) | payload</pre>
+ * BEGIN's payload is kind (1 byte) | response offset in code points (4 bytes) | video sample rate
+ * (4-byte float, 0 for the server default) | UTF-8 text.
+ * MEDIA carries raw media bytes, RESPONSE and ERROR carry UTF-8 text, the rest are empty.
+ */
+public final class SessionFrames {
+    // Client to server
+    public static final byte BEGIN = 1;
+    public static final byte MEDIA = 2;
+    public static final byte END = 3;
+    public static final byte CANCEL = 4;
+
+    // Server to client
+    public static final byte RESPONSE = 16;
+    public static final byte DONE = 17;
+    public static final byte ERROR = 18;
+
+    public static final byte KIND_TEXT = 0;
+    public static final byte KIND_IMAGE = 1;
+    public static final byte KIND_VIDEO = 2;
+
+    public static final int HEADER_SIZE = 5;
+
+    private SessionFrames() {
+    }
+
+    public static ByteString begin(int interactionId, byte kind, int responseOffset, float videoFps, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = header(BEGIN, interactionId, 9 + utf8.length);
+        buffer.put(kind).putInt(responseOffset).putFloat(videoFps).put(utf8);
+        return ByteString.of(buffer.array());
+    }
+
+    public static ByteString media(int interactionId, byte[] data, int length) {
+        ByteBuffer buffer = header(MEDIA, interactionId, length);
+        buffer.put(data, 0, length);
+        return ByteString.of(buffer.array());
+    }
+
+    public static ByteString text(byte type, int interactionId, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = header(type, interactionId, utf8.length);
+        buffer.put(utf8);
+        return ByteString.of(buffer.array());
+    }
+
+    public static ByteString empty(byte type, int interactionId) {
+        return ByteString.of(header(type, interactionId, 0).array());
+    }
+
+    public static byte type(ByteString frame) {
+        return frame.getByte(0);
+    }
+
+    public static int interactionId(ByteString frame) {
+        return ((frame.getByte(1) & 0xFF) << 24) | ((frame.getByte(2) & 0xFF) << 16)
+                | ((frame.getByte(3) & 0xFF) << 8) | (frame.getByte(4) & 0xFF);
+    }
+
+    public static ByteString payload(ByteString frame) {
+        return frame.substring(HEADER_SIZE);
+    }
+
+    private static ByteBuffer header(byte type, int interactionId, int payloadLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+        buffer.put(type).putInt(interactionId);
+        return buffer;
+    }
+}
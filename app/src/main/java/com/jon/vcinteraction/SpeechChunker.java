@@ -0,0 +1,59 @@
+package com.jon.vcinteraction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits responses into chunks short enough for a single TextToSpeech.speak call.
+ */
+public final class SpeechChunker {
+    public static final int DEFAULT_CHUNK_SIZE = 3900; // Leave buffer below 4000 char limit
+
+    private SpeechChunker() {
+    }
+
+    public static List<String> split(String text, int chunkSize) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return chunks;
+        }
+
+        // Split by sentences to maintain natural speech breaks
+        String[] sentences = text.split("(?<=[.!?])\\s+");
+        StringBuilder currentChunk = new StringBuilder();
+
+        for (String sentence : sentences) {
+            if (currentChunk.length() > 0 && currentChunk.length() + sentence.length() > chunkSize) {
+                chunks.add(currentChunk.toString().trim());
+                currentChunk.setLength(0);
+            }
+            if (sentence.length() > chunkSize) {
+                // A single run-on sentence still has to fit the engine limit
+                splitLongSentence(sentence, chunkSize, chunks, currentChunk);
+                continue;
+            }
+            currentChunk.append(sentence).append(' ');
+        }
+
+        // Add the last chunk if not empty
+        String last = currentChunk.toString().trim();
+        if (!last.isEmpty()) {
+            chunks.add(last);
+        }
+        return chunks;
+    }
+
+    private static void splitLongSentence(String sentence, int chunkSize, List<String> chunks,
+                                          StringBuilder remainder) {
+        int start = 0;
+        while (sentence.length() - start > chunkSize) {
+            int end = sentence.lastIndexOf(' ', start + chunkSize);
+            if (end <= start) {
+                end = start + chunkSize;
+            }
+            chunks.add(sentence.substring(start, end).trim());
+            start = end;
+        }
+        remainder.append(sentence.substring(start).trim()).append(' ');
+    }
+}
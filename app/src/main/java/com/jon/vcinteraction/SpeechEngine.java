@@ -0,0 +1,17 @@
+package com.jon.vcinteraction;
+
+/**
+ * The parts of a text-to-speech engine {@link SpeechScheduler} drives, so scheduling can be
+ * tested without Android's TextToSpeech.
+ */
+public interface SpeechEngine {
+    /**
+     * @param flush drop everything queued before this utterance
+     * @return false if the engine rejected the utterance
+     */
+    boolean speak(String text, boolean flush, String utteranceId);
+
+    boolean playSilence(long durationMs, String utteranceId);
+
+    void stop();
+}
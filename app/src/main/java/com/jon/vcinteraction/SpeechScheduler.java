@@ -0,0 +1,175 @@
+package com.jon.vcinteraction;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schedules spoken answers per interaction. Utterance ids carry the interaction they belong to,
+ * a newer answer flushes whatever is still queued for older ones, answers that arrive after a
+ * newer one are dropped, and {@link #bargeIn(long)} silences everything when the user starts talking.
+ * Also warms the engine up and tracks queue depth and time to first audio.
+ */
+public class SpeechScheduler {
+    private static final String WARM_UP_ID = "warmup";
+    private static final long WARM_UP_SILENCE_MS = 1;
+
+    private final SpeechEngine engine;
+    private final Clock clock;
+
+    // Utterance id -> interaction, for utterances handed to the engine and not yet finished
+    private final Map<String, Long> queued = new LinkedHashMap<>();
+    // Interaction -> time its answer was handed over, until its first utterance starts
+    private final Map<Long, Long> awaitingFirstAudio = new HashMap<>();
+    private long currentInteraction = -1;
+    private long mutedThrough = -1;
+    private long nextUtterance;
+
+    private long warmUpStartNanos = -1;
+    private long warmUpNanos = -1;
+    private long lastFirstAudioNanos = -1;
+    private long totalFirstAudioNanos;
+    private int firstAudioSamples;
+
+    public SpeechScheduler(SpeechEngine engine) {
+        this(engine, Clock.SYSTEM);
+    }
+
+    public SpeechScheduler(SpeechEngine engine, Clock clock) {
+        this.engine = engine;
+        this.clock = clock;
+    }
+
+    /**
+     * Plays a near-zero silent utterance so the first real answer does not pay engine start-up.
+     */
+    public synchronized void warmUp() {
+        warmUpStartNanos = clock.nanoTime();
+        if (!engine.playSilence(WARM_UP_SILENCE_MS, WARM_UP_ID)) {
+            warmUpStartNanos = -1;
+        }
+    }
+
+    /**
+     * Speaks an interaction's answer.
+     *
+     * @return false if the answer was stale or muted by barge-in and was not spoken
+     */
+    public synchronized boolean speak(long interactionId, String text) {
+        if (interactionId < currentInteraction || interactionId <= mutedThrough) {
+            return false;
+        }
+        List<String> chunks = SpeechChunker.split(text, SpeechChunker.DEFAULT_CHUNK_SIZE);
+        if (chunks.isEmpty()) {
+            return false;
+        }
+
+        // A newer interaction evicts whatever older answers are still queued
+        boolean flush = interactionId != currentInteraction && !queued.isEmpty();
+        if (flush) {
+            queued.clear();
+            awaitingFirstAudio.clear();
+        }
+        currentInteraction = interactionId;
+        if (!awaitingFirstAudio.containsKey(interactionId)) {
+            awaitingFirstAudio.put(interactionId, clock.nanoTime());
+        }
+
+        boolean spoken = false;
+        for (int i = 0; i < chunks.size(); i++) {
+            String utteranceId = "i" + interactionId + "_" + nextUtterance++;
+            if (engine.speak(chunks.get(i), flush && i == 0, utteranceId)) {
+                queued.put(utteranceId, interactionId);
+                spoken = true;
+            }
+        }
+        return spoken;
+    }
+
+    /**
+     * Stops speaking and mutes every answer up to the latest interaction issued, e.g. when the mic
+     * opens. Answers still in flight for those interactions are muted when they arrive.
+     */
+    public synchronized void bargeIn(long latestInteractionId) {
+        mutedThrough = Math.max(mutedThrough, Math.max(currentInteraction, latestInteractionId));
+        if (!queued.isEmpty()) {
+            engine.stop();
+            queued.clear();
+        }
+        awaitingFirstAudio.clear();
+    }
+
+    public synchronized void onStart(String utteranceId) {
+        long now = clock.nanoTime();
+        if (WARM_UP_ID.equals(utteranceId)) {
+            recordWarmUp(now);
+            return;
+        }
+        Long interactionId = queued.get(utteranceId);
+        if (interactionId == null) {
+            return;
+        }
+        Long requested = awaitingFirstAudio.remove(interactionId);
+        if (requested != null) {
+            lastFirstAudioNanos = now - requested;
+            totalFirstAudioNanos += lastFirstAudioNanos;
+            firstAudioSamples++;
+        }
+    }
+
+    /**
+     * Called when an utterance finishes, fails or is interrupted.
+     */
+    public synchronized void onEnd(String utteranceId) {
+        if (WARM_UP_ID.equals(utteranceId)) {
+            // Some engines never report a start for silence
+            recordWarmUp(clock.nanoTime());
+            return;
+        }
+        queued.remove(utteranceId);
+    }
+
+    private void recordWarmUp(long now) {
+        if (warmUpStartNanos >= 0 && warmUpNanos < 0) {
+            warmUpNanos = now - warmUpStartNanos;
+        }
+    }
+
+    /**
+     * The interaction an utterance id was issued for, or -1 for warm-up and foreign ids.
+     */
+    public static long interactionOf(String utteranceId) {
+        int separator = utteranceId == null ? -1 : utteranceId.indexOf('_');
+        if (separator < 2 || utteranceId.charAt(0) != 'i') {
+            return -1;
+        }
+        try {
+            return Long.parseLong(utteranceId.substring(1, separator));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued.size();
+    }
+
+    /**
+     * Time from handing an answer over to its first audio, or -1 before any answer played.
+     */
+    public synchronized long getLastTimeToFirstAudioMs() {
+        return lastFirstAudioNanos < 0 ? -1 : lastFirstAudioNanos / 1_000_000L;
+    }
+
+    public synchronized long getAverageTimeToFirstAudioMs() {
+        return firstAudioSamples == 0 ? -1 : totalFirstAudioNanos / firstAudioSamples / 1_000_000L;
+    }
+
+    /**
+     * How long the engine took to play the warm-up utterance, or -1 if it has not yet.
+     */
+    public synchronized long getWarmUpMs() {
+        return warmUpNanos < 0 ? -1 : warmUpNanos / 1_000_000L;
+    }
+}
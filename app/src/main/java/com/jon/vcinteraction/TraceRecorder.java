@@ -0,0 +1,260 @@
+package com.jon.vcinteraction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary trace of interaction stages for reproducing field performance offline. Events
+ * are fixed-size records appended to a ring of memory-mapped segment files, so recording one is
+ * a handful of stores into the page cache and the trace survives the process being killed.
+ * {@link #read(File)} turns the segments back into events, oldest first.
+ */
+public class TraceRecorder implements Closeable {
+    // Segment layout (big-endian):
+    //   header  MAGIC (4) | version (2) | record size (2) | sequence (8) | run start ms (8)
+    //   records type (1) | endpoint (1) | reserved (2) | interaction (4) | timestamp ns (8) | value (8)
+    // A zero type byte marks the end of the written records.
+    private static final int MAGIC = 0x56435452; // "VCTR"
+    private static final short VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 24;
+
+    public static final int DEFAULT_SEGMENTS = 8;
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    // Event types; value meaning in brackets
+    public static final byte RECORD_STARTED = 1;
+    public static final byte RECORD_FINISHED = 2;    // [clip bytes]
+    public static final byte SPEECH_RECOGNIZED = 3;  // [text characters]
+    public static final byte REQUEST_SENT = 4;       // [payload bytes]
+    public static final byte RESPONSE_RECEIVED = 5;  // [response bytes]
+    public static final byte REQUEST_FAILED = 6;
+    public static final byte REQUEST_CANCELLED = 7;
+    public static final byte TTS_STARTED = 8;
+    public static final byte TTS_DONE = 9;
+    public static final byte SERVER_PROCESSED = 10; // [server processing ms]
+
+    public static final byte ENDPOINT_NONE = 0;
+    public static final byte ENDPOINT_TEXT = 1;
+    public static final byte ENDPOINT_IMAGE_TEXT = 2;
+    public static final byte ENDPOINT_VIDEO_TEXT = 3;
+    // Or'd into the endpoint when the interaction went over the WebSocket session
+    public static final byte ENDPOINT_SESSION = (byte) 0x80;
+
+    private final File directory;
+    private final int segments;
+    private final int segmentSize;
+    private final Clock clock;
+    private final long runStartMs;
+    private final long nanoBase;
+    private long sequence;
+    private MappedByteBuffer buffer;
+
+    public TraceRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENTS, DEFAULT_SEGMENT_SIZE, Clock.SYSTEM);
+    }
+
+    public TraceRecorder(File directory, int segments, int segmentSize, Clock clock) throws IOException {
+        if (segments < 2 || segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("Trace needs at least two segments that fit a record");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create trace directory " + directory);
+        }
+        this.directory = directory;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+        this.runStartMs = System.currentTimeMillis();
+        this.nanoBase = clock.nanoTime();
+
+        // Each run starts a fresh segment after the newest one on disk, overwriting the oldest
+        long newest = -1;
+        for (Segment segment : readSegments(directory)) {
+            newest = Math.max(newest, segment.sequence);
+        }
+        sequence = newest;
+        rotate();
+    }
+
+    public static byte endpointCode(String path) {
+        if (path == null) {
+            return ENDPOINT_NONE;
+        }
+        // image-text/ and video-text/ also end in text/, so they are checked first
+        if (path.endsWith(InteractionRequests.VIDEO_TEXT_ENDPOINT)) {
+            return ENDPOINT_VIDEO_TEXT;
+        }
+        if (path.endsWith(InteractionRequests.IMAGE_TEXT_ENDPOINT)) {
+            return ENDPOINT_IMAGE_TEXT;
+        }
+        if (path.endsWith(InteractionRequests.TEXT_ENDPOINT)) {
+            return ENDPOINT_TEXT;
+        }
+        return ENDPOINT_NONE;
+    }
+
+    public static String endpointPath(byte code) {
+        switch (code & ~ENDPOINT_SESSION) {
+            case ENDPOINT_TEXT:
+                return InteractionRequests.TEXT_ENDPOINT;
+            case ENDPOINT_IMAGE_TEXT:
+                return InteractionRequests.IMAGE_TEXT_ENDPOINT;
+            case ENDPOINT_VIDEO_TEXT:
+                return InteractionRequests.VIDEO_TEXT_ENDPOINT;
+            default:
+                return null;
+        }
+    }
+
+    public void record(byte type, long interactionId, long value) {
+        record(type, interactionId, ENDPOINT_NONE, value);
+    }
+
+    public synchronized void record(byte type, long interactionId, byte endpoint, long value) {
+        if (buffer == null) {
+            return; // Closed
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                buffer = null; // Tracing is best effort; never fail an interaction over it
+                return;
+            }
+        }
+        long timestamp = clock.nanoTime() - nanoBase;
+        buffer.put(type)
+                .put(endpoint)
+                .putShort((short) 0)
+                .putInt((int) interactionId)
+                .putLong(timestamp)
+                .putLong(value);
+    }
+
+    private void rotate() throws IOException {
+        sequence++;
+        File file = new File(directory, "trace-" + (sequence % segments) + ".bin");
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            // The mapping stays valid after the file is closed
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        // Clear what the previous lap left behind so readers stop at the end of this one
+        while (mapped.remaining() >= 8) {
+            mapped.putLong(0L);
+        }
+        while (mapped.hasRemaining()) {
+            mapped.put((byte) 0);
+        }
+        mapped.clear();
+        mapped.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) RECORD_SIZE)
+                .putLong(sequence)
+                .putLong(runStartMs);
+        buffer = mapped;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads every segment in the directory, returning events from the oldest segment first.
+     */
+    public static List<Event> read(File directory) throws IOException {
+        List<Segment> segments = readSegments(directory);
+        Collections.sort(segments, (a, b) -> Long.compare(a.sequence, b.sequence));
+        List<Event> events = new ArrayList<>();
+        for (Segment segment : segments) {
+            ByteBuffer data = segment.data;
+            data.position(HEADER_SIZE);
+            while (data.remaining() >= RECORD_SIZE) {
+                byte type = data.get();
+                if (type == 0) {
+                    break;
+                }
+                byte endpoint = data.get();
+                data.getShort();
+                int interactionId = data.getInt();
+                long timestamp = data.getLong();
+                long value = data.getLong();
+                events.add(new Event(segment.runStartMs, type, endpoint, interactionId, timestamp, value));
+            }
+        }
+        return events;
+    }
+
+    private static List<Segment> readSegments(File directory) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("trace-") && name.endsWith(".bin"));
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getShort() != VERSION
+                    || data.getShort() != RECORD_SIZE) {
+                continue;
+            }
+            long sequence = data.getLong();
+            long runStartMs = data.getLong();
+            segments.add(new Segment(sequence, runStartMs, data));
+        }
+        return segments;
+    }
+
+    /**
+     * One recorded event. Timestamps count from the start of the recording run.
+     */
+    public static final class Event {
+        public final long runStartMs;
+        public final byte type;
+        public final byte endpoint;
+        public final int interactionId;
+        public final long timestampNanos;
+        public final long value;
+
+        Event(long runStartMs, byte type, byte endpoint, int interactionId, long timestampNanos, long value) {
+            this.runStartMs = runStartMs;
+            this.type = type;
+            this.endpoint = endpoint;
+            this.interactionId = interactionId;
+            this.timestampNanos = timestampNanos;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "run " + runStartMs + " #" + interactionId + " type " + type + " endpoint " + endpoint
+                    + " at " + timestampNanos + " ns value " + value;
+        }
+    }
+
+    private static final class Segment {
+        final long sequence;
+        final long runStartMs;
+        final ByteBuffer data;
+
+        Segment(long sequence, long runStartMs, ByteBuffer data) {
+            this.sequence = sequence;
+            this.runStartMs = runStartMs;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.jon.vcinteraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled voice command grammar. Command phrases are stored in a trie over normalized tokens
+ * and every recognizer hypothesis is scored against it, so control phrases are dispatched
+ * locally and sentences that merely mention a command word fall through to the server.
+ */
+public class VoiceCommandGrammar {
+    public static final String COMMAND_CAPTURE_PHOTO = "capture_photo";
+    public static final String COMMAND_RECORD_VIDEO = "record_video";
+    public static final String SLOT_SECONDS = "seconds";
+
+    // Share of the utterance's content tokens a phrase must cover to count as a command
+    private static final float MIN_COVERAGE = 0.6f;
+    // A command hypothesis must score at least this fraction of the best hypothesis confidence
+    private static final float MIN_RELATIVE_SCORE = 0.5f;
+
+    // Politeness and glue words that are ignored in both phrases and utterances
+    private static final Set<String> FILLER_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "the", "please", "now", "can", "could", "you", "i", "want", "to",
+            "would", "like", "go", "ahead", "and", "just", "me", "for", "some", "hey"));
+
+    // Any of these before the command phrase turns it into a statement about the command
+    private static final Set<String> NEGATION_WORDS = new HashSet<>(Arrays.asList(
+            "dont", "not", "never", "stop", "cant", "cannot", "no"));
+
+    // Number words a slot accepts besides digits, mapped to their value
+    private static final Map<String, String> NUMBER_WORDS = new HashMap<>();
+
+    static {
+        String[] units = {"zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine",
+                "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen",
+                "eighteen", "nineteen", "twenty"};
+        for (int i = 0; i < units.length; i++) {
+            NUMBER_WORDS.put(units[i], Integer.toString(i));
+        }
+        NUMBER_WORDS.put("thirty", "30");
+        NUMBER_WORDS.put("forty", "40");
+        NUMBER_WORDS.put("fifty", "50");
+        NUMBER_WORDS.put("sixty", "60");
+    }
+
+    private final Node root;
+
+    private VoiceCommandGrammar(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Grammar for the commands the app dispatches locally.
+     */
+    public static VoiceCommandGrammar createDefault() {
+        return new Builder()
+                .addCommand(COMMAND_CAPTURE_PHOTO,
+                        "capture", "capture photo", "capture picture", "capture image",
+                        "take photo", "take picture", "take snapshot", "snap photo", "snap picture")
+                .addCommand(COMMAND_RECORD_VIDEO,
+                        "record", "record video", "record clip", "start recording",
+                        "take video", "shoot video", "film",
+                        "record {seconds} seconds", "record video {seconds} seconds")
+                .build();
+    }
+
+    /**
+     * Scores all hypotheses in a single pass and returns the best command match, or null when
+     * the speech should be treated as free text.
+     *
+     * @param hypotheses  recognizer alternatives, best first
+     * @param confidences matching confidence scores, or null when the recognizer gave none
+     */
+    public Match match(List<String> hypotheses, float[] confidences) {
+        if (hypotheses == null || hypotheses.isEmpty()) {
+            return null;
+        }
+
+        Match best = null;
+        float topConfidence = 0f;
+        for (int i = 0; i < hypotheses.size(); i++) {
+            float confidence = confidenceAt(confidences, i);
+            topConfidence = Math.max(topConfidence, confidence);
+
+            List<String> tokens = contentTokens(hypotheses.get(i));
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            Walk walk = longestMatch(tokens);
+            if (walk == null) {
+                continue;
+            }
+            float coverage = (float) walk.length / tokens.size();
+            if (coverage < MIN_COVERAGE || negated(tokens, walk.start)) {
+                continue;
+            }
+            float score = confidence * coverage;
+            if (best == null || score > best.score) {
+                best = new Match(walk.node.command, walk.slots, score, i);
+            }
+        }
+
+        if (best == null || best.score < topConfidence * MIN_RELATIVE_SCORE) {
+            return null;
+        }
+        return best;
+    }
+
+    public Match match(String hypothesis) {
+        return match(Collections.singletonList(hypothesis), null);
+    }
+
+    private static float confidenceAt(float[] confidences, int index) {
+        if (confidences != null && index < confidences.length && confidences[index] >= 0f) {
+            return confidences[index];
+        }
+        // Recognizers that omit scores still order alternatives best first
+        return 1f / (index + 1);
+    }
+
+    private static boolean negated(List<String> tokens, int start) {
+        for (int i = 0; i < start; i++) {
+            if (NEGATION_WORDS.contains(tokens.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Walk longestMatch(List<String> tokens) {
+        Walk best = null;
+        for (int start = 0; start < tokens.size(); start++) {
+            Walk walk = walk(root, tokens, start, start, 0, null);
+            if (walk != null && (best == null || walk.length > best.length)) {
+                best = walk;
+            }
+        }
+        return best;
+    }
+
+    private static Walk walk(Node node, List<String> tokens, int start, int position, int length,
+                             Map<String, String> slots) {
+        Walk best = node.command != null ? new Walk(node, start, length, slots) : null;
+        if (position >= tokens.size()) {
+            return best;
+        }
+
+        String token = tokens.get(position);
+        Node literal = node.children.get(token);
+        if (literal != null) {
+            Walk walk = walk(literal, tokens, start, position + 1, length + 1, slots);
+            if (walk != null && (best == null || walk.length > best.length)) {
+                best = walk;
+            }
+        }
+        String number = numberValue(token);
+        if (node.slotChild != null && number != null) {
+            Map<String, String> captured = slots == null
+                    ? new HashMap<String, String>() : new HashMap<>(slots);
+            captured.put(node.slotName, number);
+            Walk walk = walk(node.slotChild, tokens, start, position + 1, length + 1, captured);
+            if (walk != null && (best == null || walk.length > best.length)) {
+                best = walk;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Digits as written, a number word as digits, anything else null.
+     */
+    private static String numberValue(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                return NUMBER_WORDS.get(token);
+            }
+        }
+        return token;
+    }
+
+    static List<String> contentTokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        String lower = text.toLowerCase(Locale.US);
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                current.append(c);
+            } else if (c != '\'' && current.length() > 0) {
+                String token = current.toString();
+                if (!FILLER_WORDS.contains(token)) {
+                    tokens.add(token);
+                }
+                current.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Result of a successful match.
+     */
+    public static final class Match {
+        public final String command;
+        public final float score;
+        public final int hypothesisIndex;
+        private final Map<String, String> slots;
+
+        Match(String command, Map<String, String> slots, float score, int hypothesisIndex) {
+            this.command = command;
+            this.slots = slots == null ? Collections.<String, String>emptyMap() : slots;
+            this.score = score;
+            this.hypothesisIndex = hypothesisIndex;
+        }
+
+        public String slot(String name) {
+            return slots.get(name);
+        }
+
+        @Override
+        public String toString() {
+            return command + slots + " score=" + score + " hypothesis=" + hypothesisIndex;
+        }
+    }
+
+    /**
+     * Builds a grammar from command phrases. A token written as {name} is a slot that captures
+     * a single number, given as digits or a number word and reported as digits.
+     */
+    public static final class Builder {
+        private final Node root = new Node();
+
+        public Builder addCommand(String command, String... phrases) {
+            for (String phrase : phrases) {
+                Node node = root;
+                for (String part : phrase.trim().split("\\s+")) {
+                    if (part.startsWith("{") && part.endsWith("}")) {
+                        String name = part.substring(1, part.length() - 1);
+                        if (node.slotChild == null) {
+                            node.slotChild = new Node();
+                            node.slotName = name;
+                        } else if (!name.equals(node.slotName)) {
+                            throw new IllegalArgumentException("Conflicting slot names in: " + phrase);
+                        }
+                        node = node.slotChild;
+                        continue;
+                    }
+                    for (String token : contentTokens(part)) {
+                        Node child = node.children.get(token);
+                        if (child == null) {
+                            child = new Node();
+                            node.children.put(token, child);
+                        }
+                        node = child;
+                    }
+                }
+                if (node == root) {
+                    throw new IllegalArgumentException("Phrase has no content tokens: " + phrase);
+                }
+                if (node.command != null && !node.command.equals(command)) {
+                    throw new IllegalArgumentException("Phrase already bound to " + node.command + ": " + phrase);
+                }
+                node.command = command;
+            }
+            return this;
+        }
+
+        public VoiceCommandGrammar build() {
+            return new VoiceCommandGrammar(root);
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node slotChild;
+        String slotName;
+        String command;
+    }
+
+    private static final class Walk {
+        final Node node;
+        final int start;
+        final int length;
+        final Map<String, String> slots;
+
+        Walk(Node node, int start, int length, Map<String, String> slots) {
+            this.node = node;
+            this.start = start;
+            this.length = length;
+            this.slots = slots;
+        }
+    }
+}
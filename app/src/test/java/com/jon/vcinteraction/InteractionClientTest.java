@@ -0,0 +1,115 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InteractionClient} against a mock inference server.
+ */
+public class InteractionClientTest {
+    private MockWebServer server;
+    private InteractionRequests requests;
+    private InteractionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        requests = new InteractionRequests(server.url("/").toString());
+        client = new InteractionClient(InteractionClient.defaultClientBuilder().build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void send_deliversSuccessBody() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"hello\"]"));
+
+        assertEquals("[\"hello\"]", RecordingListener.send(client, requests.text("hi")));
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("/" + InteractionRequests.TEXT_ENDPOINT, recorded.getPath());
+        assertTrue(recorded.getBody().readUtf8().contains("hi"));
+    }
+
+    @Test
+    public void send_reportsServerProcessingTime() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"hello\"]")
+                .setHeader(InteractionClient.PROCESSING_TIME_HEADER, "1234"));
+        RecordingListener timed = new RecordingListener();
+        client.send(requests.text("hi"), timed);
+        assertEquals("[\"hello\"]", timed.await());
+        assertEquals(1234, timed.serverMs.get());
+
+        server.enqueue(new MockResponse().setBody("[\"hello\"]"));
+        RecordingListener untimed = new RecordingListener();
+        client.send(requests.text("hi"), untimed);
+        assertEquals("[\"hello\"]", untimed.await());
+        assertEquals(-1, untimed.serverMs.get());
+    }
+
+    @Test
+    public void send_reportsServerErrorWithBody() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+
+        assertEquals("error:Server error: 500 - boom", RecordingListener.send(client, requests.text("hi")));
+    }
+
+    @Test
+    public void maxConcurrentUploads_queuesMediaButNotText() throws Exception {
+        File image = File.createTempFile("upload", ".jpg");
+        try {
+            Files.write(image.toPath(), new byte[1024]);
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if (request.getPath().endsWith(InteractionRequests.IMAGE_TEXT_ENDPOINT)) {
+                        return new MockResponse().setBody("image").setHeadersDelay(500, TimeUnit.MILLISECONDS);
+                    }
+                    return new MockResponse().setBody("text");
+                }
+            });
+            client.setMaxConcurrentUploads(1);
+            RecordingListener first = new RecordingListener();
+            RecordingListener second = new RecordingListener();
+            client.send(requests.imageAndText(image, "one"), first);
+            client.send(requests.imageAndText(image, "two"), second);
+
+            // The question goes out while the second upload still waits for the first
+            assertEquals("text", RecordingListener.send(client, requests.text("meanwhile")));
+            assertTrue(server.getRequestCount() <= 2);
+            assertEquals("image", first.await());
+            assertEquals("image", second.await());
+            assertEquals(3, server.getRequestCount());
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void cancelAll_cancelsSlowUploadWithoutError() throws Exception {
+        server.enqueue(new MockResponse().throttleBody(1024, 1, TimeUnit.SECONDS));
+        RecordingListener listener = new RecordingListener();
+        client.send(requests.text(new String(new char[64 * 1024]).replace('\0', 'x')), listener);
+
+        assertEquals(1, client.inFlightCount());
+        assertEquals(1, client.cancelAll());
+        assertEquals("cancelled", listener.await());
+        assertEquals(0, client.inFlightCount());
+    }
+}
@@ -0,0 +1,218 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InteractionSession} against a mock WebSocket session server.
+ */
+public class InteractionSessionTest {
+    private static final String ANSWER = "The sign says open. Hours are nine to five.";
+
+    private MockWebServer server;
+    private MockSessionServer sessionServer;
+    private InteractionSession session;
+
+    @Before
+    public void setUp() throws IOException {
+        sessionServer = new MockSessionServer();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(sessionServer);
+            }
+        });
+        server.start();
+        session = new InteractionSession(new OkHttpClient(), server.url("/").toString(), 50);
+        session.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        session.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void text_streamsAnswerInChunks() throws Exception {
+        RecordingListener result = new RecordingListener();
+        session.sendText("what does the sign say", result);
+
+        assertEquals(ANSWER, result.await());
+        assertEquals(2, result.partials.get());
+        assertEquals("what does the sign say", sessionServer.texts.get(0));
+    }
+
+    @Test
+    public void image_uploadsMediaInChunks() throws Exception {
+        File image = File.createTempFile("session", ".jpg");
+        try {
+            Files.write(image.toPath(), new byte[200 * 1024]);
+            RecordingListener result = new RecordingListener();
+            int id = session.sendImage(image, "what is this", result);
+
+            assertEquals(ANSWER, result.await());
+            assertEquals(200 * 1024, sessionServer.mediaBytes.get(id).get());
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void video_sendsSampleRateOnlyForVideo() throws Exception {
+        File video = File.createTempFile("session", ".mp4");
+        try {
+            Files.write(video.toPath(), new byte[1024]);
+            session.setVideoFps(0.5f);
+            RecordingListener clip = new RecordingListener();
+            session.sendVideo(video, "what happened", clip);
+            assertEquals(ANSWER, clip.await());
+            RecordingListener question = new RecordingListener();
+            session.sendText("and then", question);
+            assertEquals(ANSWER, question.await());
+
+            assertEquals(Arrays.asList(0.5f, 0f), sessionServer.sampleRates);
+        } finally {
+            video.delete();
+        }
+    }
+
+    @Test
+    public void reconnect_resumesFromReceivedOffset() throws Exception {
+        sessionServer.dropAfterFirstChunk = true;
+        RecordingListener result = new RecordingListener();
+        session.sendText("what does the sign say", result);
+
+        assertEquals(ANSWER, result.await());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(Integer.valueOf(ANSWER.indexOf(' ', 10) + 1), sessionServer.offsets.get(1));
+    }
+
+    @Test
+    public void cancel_abandonsOneOfTwoInterleavedInteractions() throws Exception {
+        sessionServer.holdAfterFirstChunk = true;
+        RecordingListener kept = new RecordingListener();
+        RecordingListener dropped = new RecordingListener();
+        int keptId = session.sendText("what does the sign say", kept);
+        int droppedId = session.sendText("and the other one", dropped);
+        assertTrue(sessionServer.held.await(10, TimeUnit.SECONDS));
+
+        assertTrue(session.cancel(droppedId));
+        assertFalse(session.cancel(droppedId));
+        assertEquals("cancelled", dropped.await());
+        assertTrue(sessionServer.cancelled.await(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(droppedId), sessionServer.cancelledIds.get(0));
+
+        // The server finishes both; the late frames for the cancelled one are ignored
+        sessionServer.finishHeld();
+        assertEquals(ANSWER, kept.await());
+        assertEquals(2, kept.partials.get());
+        assertFalse(session.cancel(keptId));
+    }
+
+    /**
+     * Answers each interaction in two RESPONSE frames; optionally drops the socket after the
+     * first one to exercise resume, or holds the second until {@link #finishHeld()} so answers
+     * interleave.
+     */
+    private static final class MockSessionServer extends WebSocketListener {
+        final List<String> texts = new CopyOnWriteArrayList<>();
+        final List<Integer> offsets = new CopyOnWriteArrayList<>();
+        final List<Float> sampleRates = new CopyOnWriteArrayList<>();
+        final Map<Integer, AtomicInteger> mediaBytes = new ConcurrentHashMap<>();
+        final List<Integer> cancelledIds = new CopyOnWriteArrayList<>();
+        final Map<Integer, WebSocket> heldAnswers = new ConcurrentHashMap<>();
+        final CountDownLatch held = new CountDownLatch(2);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        volatile boolean dropAfterFirstChunk;
+        volatile boolean holdAfterFirstChunk;
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString frame) {
+            int id = SessionFrames.interactionId(frame);
+            ByteString payload = SessionFrames.payload(frame);
+            switch (SessionFrames.type(frame)) {
+                case SessionFrames.BEGIN:
+                    offsets.add(payload.substring(1, 5).asByteBuffer().getInt());
+                    sampleRates.add(payload.substring(5, 9).asByteBuffer().getFloat());
+                    texts.add(payload.substring(9).utf8());
+                    mediaBytes.put(id, new AtomicInteger());
+                    break;
+                case SessionFrames.MEDIA:
+                    mediaBytes.get(id).addAndGet(payload.size());
+                    break;
+                case SessionFrames.END:
+                    int offset = offsets.get(offsets.size() - 1);
+                    int split = ANSWER.indexOf(' ', 10) + 1;
+                    if (offset < split) {
+                        webSocket.send(SessionFrames.text(SessionFrames.RESPONSE, id, ANSWER.substring(offset, split)));
+                        if (dropAfterFirstChunk) {
+                            dropAfterFirstChunk = false;
+                            webSocket.close(1001, "going away");
+                            return;
+                        }
+                        if (holdAfterFirstChunk) {
+                            heldAnswers.put(id, webSocket);
+                            held.countDown();
+                            return;
+                        }
+                    }
+                    finish(webSocket, id, Math.max(offset, split));
+                    break;
+                case SessionFrames.CANCEL:
+                    cancelledIds.add(id);
+                    cancelled.countDown();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void finishHeld() {
+            for (Map.Entry<Integer, WebSocket> answer : heldAnswers.entrySet()) {
+                finish(answer.getValue(), answer.getKey(), ANSWER.indexOf(' ', 10) + 1);
+            }
+        }
+
+        private static void finish(WebSocket webSocket, int id, int from) {
+            webSocket.send(SessionFrames.text(SessionFrames.RESPONSE, id, ANSWER.substring(from)));
+            webSocket.send(SessionFrames.empty(SessionFrames.DONE, id));
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            // Expected when the test drops the connection
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for content-addressed uploads through {@link MediaDedupe}.
+ */
+public class MediaDedupeTest {
+    private static final int IMAGE_SIZE = 200 * 1024;
+
+    private MockWebServer server;
+    private File directory;
+    private File image;
+    private String sha256;
+    private final MediaDedupe dedupe = new MediaDedupe();
+    private InteractionRequests requests;
+    private final InteractionClient client = new InteractionClient(InteractionClient.defaultClientBuilder().build());
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        requests = new InteractionRequests(server.url("/").toString());
+        requests.setMediaDedupe(dedupe);
+
+        byte[] data = new byte[IMAGE_SIZE];
+        new Random(7).nextBytes(data);
+        directory = Files.createTempDirectory("dedupe").toFile();
+        MessageDigest digest = MediaDedupe.newDigest();
+        image = MediaFiles.copyToTempFile(new ByteArrayInputStream(data), directory, "jpg", digest);
+        sha256 = MediaDedupe.hex(digest.digest());
+        assertEquals(MediaDedupe.hex(MediaDedupe.newDigest().digest(data)), sha256);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        image.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void followUp_sendsHashReferenceOnly() throws Exception {
+        server.enqueue(new MockResponse().setBody("a dog"));
+        server.enqueue(new MockResponse().setBody("brown"));
+
+        assertEquals("a dog", await(requests.imageAndText(image, sha256, "what is this")));
+        RecordedRequest first = server.takeRequest();
+        assertTrue(first.getBodySize() > IMAGE_SIZE);
+        assertTrue(dedupe.isConfirmed(sha256));
+
+        assertEquals("brown", await(requests.imageAndText(image, sha256, "what colour is it")));
+        RecordedRequest followUp = server.takeRequest();
+        assertTrue(followUp.getBodySize() < 1024);
+        assertTrue(followUp.getBody().readUtf8().contains(sha256));
+    }
+
+    @Test
+    public void unknownHash_fallsBackToFullUpload() throws Exception {
+        dedupe.confirm(sha256, MediaDedupe.origin(server.url("/")));
+        server.enqueue(new MockResponse().setResponseCode(MediaDedupe.MEDIA_UNKNOWN));
+        server.enqueue(new MockResponse().setBody("a dog"));
+
+        assertEquals("a dog", await(requests.imageAndText(image, sha256, "what is this")));
+        assertTrue(server.takeRequest().getBodySize() < 1024);
+        assertTrue(server.takeRequest().getBodySize() > IMAGE_SIZE);
+        assertTrue(dedupe.isConfirmed(sha256));
+    }
+
+    @Test
+    public void lru_evictsLeastRecentlyUsedHash() {
+        MediaDedupe small = new MediaDedupe(2);
+        small.confirm("a", "http://one:8000");
+        small.confirm("b", "http://one:8000");
+        assertTrue(small.isConfirmed("a"));
+        small.confirm("c", "http://two:8000");
+        assertTrue(small.isConfirmed("a"));
+        assertFalse(small.isConfirmed("b"));
+    }
+
+    @Test
+    public void pool_pinsReferencesToConfirmingBackend() throws Exception {
+        MockWebServer other = new MockWebServer();
+        AtomicInteger misses = new AtomicInteger();
+        try {
+            Dispatcher cache = new Dispatcher() {
+                // Each backend has its own media cache, like separate inference servers
+                private final Set<String> held = Collections.synchronizedSet(new HashSet<String>());
+
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    String key = request.getRequestUrl().port() + sha256;
+                    if (request.getBodySize() > IMAGE_SIZE) {
+                        held.add(key);
+                    } else if (!held.contains(key)) {
+                        misses.incrementAndGet();
+                        return new MockResponse().setResponseCode(MediaDedupe.MEDIA_UNKNOWN);
+                    }
+                    return new MockResponse().setBody("ok");
+                }
+            };
+            server.setDispatcher(cache);
+            other.setDispatcher(cache);
+            other.start();
+            ServerPool pool = new ServerPool(Arrays.asList(server.url("/").toString(), other.url("/").toString()));
+            InteractionClient pooled = new InteractionClient(InteractionClient.defaultClientBuilder().build(), pool);
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals("ok", RecordingListener.send(pooled, requests.imageAndText(image, sha256, "question " + i)));
+            }
+            assertEquals(0, misses.get());
+            assertEquals(10, server.getRequestCount() + other.getRequestCount());
+
+            // Confirming backend down: send the bytes elsewhere rather than a reference that must miss
+            ServerPool.Backend holder = pool.find(HttpUrl.get(dedupe.confirmedOrigin(sha256) + "/"));
+            for (int i = 0; i < 3; i++) {
+                holder.onStart();
+                holder.onFailure(true);
+            }
+            assertEquals("ok", RecordingListener.send(pooled, requests.imageAndText(image, sha256, "again")));
+            assertEquals(0, misses.get());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    private String await(Request request) throws InterruptedException {
+        return RecordingListener.send(client, request);
+    }
+}
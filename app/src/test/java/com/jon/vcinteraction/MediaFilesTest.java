@@ -0,0 +1,81 @@
+package com.jon.vcinteraction;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for {@link MediaFiles} copy paths.
+ */
+public class MediaFilesTest {
+    @Test
+    public void copy_regularFile() throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        File source = File.createTempFile("source", ".bin");
+        File target = File.createTempFile("target", ".bin");
+        try {
+            Files.write(source.toPath(), data);
+            try (FileInputStream in = new FileInputStream(source)) {
+                assertEquals(data.length, MediaFiles.copy(in, target));
+            }
+            assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    @Test
+    public void copyToTempFile_hashesBothCopyPaths() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(2).nextBytes(data);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+        File source = File.createTempFile("source", ".bin");
+        File directory = source.getParentFile();
+        try {
+            Files.write(source.toPath(), data);
+            MessageDigest channelDigest = MessageDigest.getInstance("SHA-256");
+            File channelCopy = MediaFiles.copyToTempFile(new FileInputStream(source), directory, "bin", channelDigest);
+            MessageDigest streamDigest = MessageDigest.getInstance("SHA-256");
+            File streamCopy = MediaFiles.copyToTempFile(new ByteArrayInputStream(data), directory, "bin", streamDigest);
+            try {
+                assertArrayEquals(data, Files.readAllBytes(channelCopy.toPath()));
+                assertArrayEquals(expected, channelDigest.digest());
+                assertArrayEquals(expected, streamDigest.digest());
+            } finally {
+                channelCopy.delete();
+                streamCopy.delete();
+            }
+        } finally {
+            source.delete();
+        }
+    }
+
+    @Test
+    public void copy_fileThatReportsSizeZeroFallsBackToStream() throws IOException {
+        // Like a pipe from a streaming provider, procfs files have content but report size 0
+        File status = new File("/proc/self/status");
+        assumeTrue(status.canRead());
+        File target = File.createTempFile("target", ".txt");
+        try {
+            try (FileInputStream in = new FileInputStream(status)) {
+                assertTrue(MediaFiles.copy(in, target) > 0);
+            }
+            byte[] copied = Files.readAllBytes(target.toPath());
+            assertTrue(new String(copied, "UTF-8").startsWith("Name:"));
+        } finally {
+            target.delete();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProgressRequestBody} and {@link BandwidthMeter} against a throttled
+ * mock server.
+ */
+public class ProgressRequestBodyTest {
+    private static final int UPLOAD_SIZE = 256 * 1024;
+
+    private MockWebServer server;
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void upload_reportsMonotonicProgressToContentLength() throws Exception {
+        server.enqueue(new MockResponse().throttleBody(64 * 1024, 100, TimeUnit.MILLISECONDS));
+        AtomicLong last = new AtomicLong();
+        BandwidthMeter meter = new BandwidthMeter();
+
+        RequestBody body = new ProgressRequestBody(payload(), (bytesWritten, contentLength) -> {
+            assertTrue(bytesWritten >= last.get());
+            assertEquals(UPLOAD_SIZE, contentLength);
+            last.set(bytesWritten);
+        }, meter);
+        execute(body);
+
+        assertEquals(UPLOAD_SIZE, last.get());
+        assertEquals(UPLOAD_SIZE, server.takeRequest().getBodySize());
+    }
+
+    @Test
+    public void upload_respectsRateCapAndMeasuresIt() throws IOException {
+        server.enqueue(new MockResponse());
+        long cap = 512 * 1024;
+        BandwidthMeter meter = new BandwidthMeter();
+
+        long start = System.nanoTime();
+        execute(new ProgressRequestBody(payload(), null, meter, cap));
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 256 KB at 512 KB/s takes at least half a second
+        assertTrue("Upload took " + seconds + " s", seconds >= 0.45);
+        long estimate = meter.getEstimateBytesPerSecond();
+        assertTrue("Estimate " + estimate, estimate > cap / 2 && estimate < cap * 2);
+    }
+
+    @Test
+    public void meter_smoothsWindows() {
+        long[] now = {0};
+        BandwidthMeter meter = new BandwidthMeter(() -> now[0]);
+        assertEquals(-1, meter.getEstimateBytesPerSecond());
+
+        meter.onBytesTransferred(0);
+        now[0] = 100_000_000L;
+        meter.onBytesTransferred(100_000); // 1 MB/s
+        assertEquals(1_000_000, meter.getEstimateBytesPerSecond());
+
+        now[0] = 200_000_000L;
+        meter.onBytesTransferred(0); // idle window pulls the average down, not to zero
+        assertEquals(700_000, meter.getEstimateBytesPerSecond());
+    }
+
+    @Test
+    public void meter_concurrentTransfersKeepOwnWindows() {
+        long[] now = {0};
+        BandwidthMeter meter = new BandwidthMeter(() -> now[0]);
+        BandwidthMeter.Transfer first = meter.startTransfer();
+        BandwidthMeter.Transfer second = meter.startTransfer();
+        first.onBytesTransferred(0);
+        second.onBytesTransferred(0);
+
+        // A short transfer ending must not reset the long one's window
+        now[0] = 50_000_000L;
+        first.onBytesTransferred(10_000);
+        first.end();
+
+        now[0] = 100_000_000L;
+        second.onBytesTransferred(50_000); // 500 KB/s
+        assertEquals(500_000, meter.getEstimateBytesPerSecond());
+    }
+
+    private static RequestBody payload() {
+        return RequestBody.create(new byte[UPLOAD_SIZE], MediaType.parse("application/octet-stream"));
+    }
+
+    private void execute(RequestBody body) throws IOException {
+        Request request = new Request.Builder().url(server.url("/upload")).post(body).build();
+        try (Response response = client.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jon.vcinteraction;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Request;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test listener that records how an interaction ended so tests can block on the outcome of
+ * {@link InteractionClient} and {@link InteractionSession} callbacks.
+ */
+final class RecordingListener implements InteractionSession.Listener {
+    final AtomicInteger partials = new AtomicInteger();
+    final AtomicLong serverMs = new AtomicLong(-1);
+    private final AtomicReference<String> outcome = new AtomicReference<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Sends the request and waits for it to finish.
+     */
+    static String send(InteractionClient client, Request request) throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        client.send(request, listener);
+        return listener.await();
+    }
+
+    @Override
+    public void onPartialResponse(String chunk) {
+        partials.incrementAndGet();
+    }
+
+    @Override
+    public void onServerTiming(long processingMs) {
+        serverMs.set(processingMs);
+    }
+
+    @Override
+    public void onSuccess(String responseBody) {
+        outcome.set(responseBody);
+        done.countDown();
+    }
+
+    @Override
+    public void onError(String errorMessage, IOException cause) {
+        outcome.set("error:" + errorMessage);
+        done.countDown();
+    }
+
+    @Override
+    public void onCancelled() {
+        outcome.set("cancelled");
+        done.countDown();
+    }
+
+    /**
+     * Waits for the interaction to end, returning the response body, "error:" and the message, or
+     * "cancelled".
+     */
+    String await() throws InterruptedException {
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return outcome.get();
+    }
+}
@@ -0,0 +1,195 @@
+package com.jon.vcinteraction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ResourceGovernor} driven by fake sensors and a fake clock.
+ */
+public class ResourceGovernorTest {
+    private FakeSensors sensors;
+    private long now;
+    private ResourceGovernor governor;
+    private final List<ResourceGovernor.Tier> changes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        sensors = new FakeSensors();
+        now = 0;
+        governor = new ResourceGovernor(sensors, () -> now);
+        governor.addListener(changes::add);
+    }
+
+    @Test
+    public void coolChargedDeviceStaysAtFullTier() {
+        assertEquals(ResourceGovernor.Tier.FULL, governor.evaluate());
+        assertTrue(changes.isEmpty());
+        assertEquals(5000, governor.clipLength(5000));
+    }
+
+    @Test
+    public void fullTierKeepsRequestedClipLength() {
+        assertEquals(ResourceGovernor.Tier.FULL, governor.evaluate());
+        assertEquals(20000, governor.clipLength(20000));
+        assertEquals(30000, governor.clipLength(60000));
+
+        sensors.thermal = DeviceSensors.THERMAL_MODERATE;
+        governor.evaluate();
+        assertEquals(3000, governor.clipLength(20000));
+    }
+
+    @Test
+    public void stepsDownImmediatelyAsDeviceHeatsUp() {
+        sensors.thermal = DeviceSensors.THERMAL_MODERATE;
+        assertEquals(ResourceGovernor.Tier.LOW, governor.evaluate());
+        assertEquals(3000, governor.clipLength(5000));
+
+        sensors.thermal = DeviceSensors.THERMAL_SEVERE;
+        assertEquals(ResourceGovernor.Tier.MINIMAL, governor.evaluate());
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void recoversOneStepPerHoldPeriod() {
+        sensors.thermal = DeviceSensors.THERMAL_SEVERE;
+        governor.evaluate();
+
+        sensors.thermal = DeviceSensors.THERMAL_NONE;
+        assertEquals(ResourceGovernor.Tier.MINIMAL, governor.evaluate());
+        advanceSeconds(30);
+        assertEquals(ResourceGovernor.Tier.MINIMAL, governor.evaluate());
+        advanceSeconds(30);
+        assertEquals(ResourceGovernor.Tier.LOW, governor.evaluate());
+        advanceSeconds(60);
+        assertEquals(ResourceGovernor.Tier.REDUCED, governor.evaluate());
+        advanceSeconds(60);
+        assertEquals(ResourceGovernor.Tier.FULL, governor.evaluate());
+    }
+
+    @Test
+    public void renewedHeatResetsRecovery() {
+        sensors.thermal = DeviceSensors.THERMAL_MODERATE;
+        governor.evaluate();
+        sensors.thermal = DeviceSensors.THERMAL_NONE;
+        governor.evaluate();
+        advanceSeconds(50);
+        sensors.thermal = DeviceSensors.THERMAL_MODERATE;
+        governor.evaluate();
+        sensors.thermal = DeviceSensors.THERMAL_NONE;
+        advanceSeconds(20);
+        assertEquals(ResourceGovernor.Tier.LOW, governor.evaluate());
+    }
+
+    @Test
+    public void lowBatteryLimitsTierUnlessCharging() {
+        sensors.charging = false;
+        sensors.battery = 0.1f;
+        assertEquals(ResourceGovernor.Tier.LOW, governor.evaluate());
+
+        ResourceGovernor pluggedIn = new ResourceGovernor(sensors, () -> now);
+        sensors.charging = true;
+        assertEquals(ResourceGovernor.Tier.FULL, pluggedIn.evaluate());
+
+        ResourceGovernor saver = new ResourceGovernor(sensors, () -> now);
+        sensors.charging = false;
+        sensors.battery = 0.8f;
+        sensors.powerSave = true;
+        assertEquals(ResourceGovernor.Tier.REDUCED, saver.evaluate());
+    }
+
+    @Test
+    public void slowUplinkStepsDown() {
+        BandwidthMeter meter = new BandwidthMeter(() -> now);
+        governor.setUploadMeter(meter);
+        assertEquals(ResourceGovernor.Tier.FULL, governor.evaluate());
+
+        meter.onBytesTransferred(0);
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        meter.onBytesTransferred(10_000); // 100 KB/s
+        assertEquals(ResourceGovernor.Tier.LOW, governor.evaluate());
+    }
+
+    @Test
+    public void deferredWorkWaitsForCoolDevice() {
+        int[] runs = {0};
+        sensors.thermal = DeviceSensors.THERMAL_MODERATE;
+        governor.defer(() -> runs[0]++);
+        governor.evaluate();
+        assertEquals(0, runs[0]);
+        assertEquals(1, governor.deferredCount());
+
+        sensors.thermal = DeviceSensors.THERMAL_NONE;
+        for (int i = 0; i < 3; i++) {
+            advanceSeconds(60);
+            governor.evaluate();
+        }
+        assertEquals(ResourceGovernor.Tier.FULL, governor.getTier());
+        assertEquals(1, runs[0]);
+        assertEquals(0, governor.deferredCount());
+    }
+
+    @Test
+    public void sweepDeletesOnlyStaleTempFiles() throws IOException {
+        File directory = Files.createTempDirectory("sweep").toFile();
+        File stale = new File(directory, "temp_old.mp4");
+        File kept = new File(directory, "temp_photo.jpg");
+        File fresh = new File(directory, "temp_new.mp4");
+        File other = new File(directory, "snapshot.bin");
+        for (File file : new File[]{stale, kept, fresh, other}) {
+            assertTrue(file.createNewFile());
+        }
+        long old = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        assertTrue(stale.setLastModified(old));
+        assertTrue(kept.setLastModified(old));
+        assertTrue(other.setLastModified(old));
+
+        assertEquals(1, MediaFiles.sweepTempFiles(directory, TimeUnit.HOURS.toMillis(1), kept));
+        assertFalse(stale.exists());
+        assertTrue(kept.exists() && fresh.exists() && other.exists());
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private void advanceSeconds(long seconds) {
+        now += TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private static final class FakeSensors implements DeviceSensors {
+        int thermal = THERMAL_NONE;
+        float battery = 1f;
+        boolean charging = true;
+        boolean powerSave;
+
+        @Override
+        public int thermalStatus() {
+            return thermal;
+        }
+
+        @Override
+        public float batteryLevel() {
+            return battery;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public boolean isPowerSaveMode() {
+            return powerSave;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ServerPool} routing and failover across mock servers with different
+ * latency profiles.
+ */
+public class ServerPoolTest {
+    private final List<MockWebServer> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (MockWebServer server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void send_prefersLowLatencyBackend() throws Exception {
+        MockWebServer fast = server(200, 10);
+        MockWebServer slow = server(200, 300);
+        InteractionClient client = client(new ServerPool(urls(fast, slow)));
+        InteractionRequests requests = new InteractionRequests(fast.url("/").toString());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("answer", RecordingListener.send(client, requests.text("question " + i)));
+        }
+
+        assertTrue("slow backend served " + slow.getRequestCount(), slow.getRequestCount() <= 2);
+        assertEquals(20, fast.getRequestCount() + slow.getRequestCount());
+    }
+
+    @Test
+    public void send_failsOverTextRequestsToHealthyBackend() throws Exception {
+        MockWebServer broken = server(500, 0);
+        MockWebServer healthy = server(200, 0);
+        InteractionClient client = client(new ServerPool(urls(broken, healthy)));
+        InteractionRequests requests = new InteractionRequests(broken.url("/").toString());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("answer", RecordingListener.send(client, requests.text("question " + i)));
+        }
+        assertEquals(10, healthy.getRequestCount());
+    }
+
+    @Test
+    public void send_doesNotReplayMediaUploads() throws Exception {
+        MockWebServer first = server(500, 0);
+        MockWebServer second = server(500, 0);
+        InteractionClient client = client(new ServerPool(urls(first, second)));
+        InteractionRequests requests = new InteractionRequests(first.url("/").toString());
+        File image = File.createTempFile("pool", ".jpg");
+        try {
+            Files.write(image.toPath(), new byte[1024]);
+            assertTrue(RecordingListener.send(client, requests.imageAndText(image, "what is this")).startsWith("error:"));
+        } finally {
+            image.delete();
+        }
+        assertEquals(1, first.getRequestCount() + second.getRequestCount());
+    }
+
+    @Test
+    public void choose_skipsBackendAfterConsecutiveFailuresUntilCooldown() throws Exception {
+        ServerPool pool = new ServerPool(Arrays.asList("http://10.0.0.1:8000/", "http://10.0.0.2:8000/"), 100);
+        ServerPool.Backend flaky = pool.getBackends().get(0);
+        for (int i = 0; i < 3; i++) {
+            flaky.onStart();
+            flaky.onFailure(true);
+        }
+        assertFalse(flaky.isHealthy());
+        for (int i = 0; i < 20; i++) {
+            assertNotSame(flaky, pool.choose(Collections.<ServerPool.Backend>emptySet()));
+        }
+
+        Thread.sleep(150);
+        assertSame(flaky, pool.choose(Collections.singleton(pool.getBackends().get(1))));
+    }
+
+    @Test
+    public void choose_skipsBackendThatFailsAgainAfterCooldown() throws Exception {
+        ServerPool pool = new ServerPool(Arrays.asList("http://10.0.0.1:8000/", "http://10.0.0.2:8000/"), 100);
+        ServerPool.Backend dead = pool.getBackends().get(0);
+        for (int i = 0; i < 3; i++) {
+            dead.onStart();
+            dead.onFailure(true);
+        }
+        Thread.sleep(150);
+        assertTrue(pool.isAvailable(dead));
+
+        // The retry after the cooldown fails too, so the backend is skipped for another cooldown
+        dead.onStart();
+        dead.onFailure(true);
+        assertFalse(pool.isAvailable(dead));
+        for (int i = 0; i < 20; i++) {
+            assertNotSame(dead, pool.choose(Collections.<ServerPool.Backend>emptySet()));
+        }
+    }
+
+    @Test
+    public void healthChecks_markDeadBackendDownAndRecoverIt() throws Exception {
+        MockWebServer server = server(200, 0);
+        int port = server.getPort();
+        ServerPool pool = new ServerPool(urls(server), 60000);
+        ServerPool.Backend backend = pool.getBackends().get(0);
+        server.shutdown();
+
+        pool.startHealthChecks(InteractionClient.defaultClientBuilder().build(), 50);
+        try {
+            assertTrue("dead backend never marked down", waitFor(backend, false));
+
+            MockWebServer revived = new MockWebServer();
+            servers.add(revived);
+            revived.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse();
+                }
+            });
+            revived.start(port);
+            assertTrue("revived backend never marked up", waitFor(backend, true));
+            assertTrue(revived.getRequestCount() > 0);
+            assertEquals("HEAD", revived.takeRequest().getMethod());
+        } finally {
+            pool.stopHealthChecks();
+        }
+    }
+
+    private static boolean waitFor(ServerPool.Backend backend, boolean healthy) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (backend.isHealthy() == healthy) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private MockWebServer server(int code, long latencyMs) throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(code).setBody("answer")
+                        .setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private static List<String> urls(MockWebServer... servers) {
+        List<String> urls = new ArrayList<>();
+        for (MockWebServer server : servers) {
+            urls.add(server.url("/").toString());
+        }
+        return urls;
+    }
+
+    private static InteractionClient client(ServerPool pool) {
+        return new InteractionClient(InteractionClient.defaultClientBuilder().build(), pool);
+    }
+}
@@ -0,0 +1,144 @@
+package com.jon.vcinteraction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SpeechScheduler} driving a fake engine.
+ */
+public class SpeechSchedulerTest {
+    private FakeEngine engine;
+    private long now;
+    private SpeechScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        engine = new FakeEngine();
+        now = 0;
+        scheduler = new SpeechScheduler(engine, () -> now);
+    }
+
+    @Test
+    public void newerAnswerFlushesOlderOne() {
+        assertTrue(scheduler.speak(1, "First answer."));
+        assertTrue(scheduler.speak(2, "Second answer."));
+
+        assertEquals(2, engine.spoken.size());
+        assertFalse(engine.flushes.get(0));
+        assertTrue(engine.flushes.get(1));
+        assertTrue(engine.spoken.get(1).startsWith("i2_"));
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void staleAnswerIsDropped() {
+        scheduler.speak(2, "Second answer.");
+        assertFalse(scheduler.speak(1, "First answer, late."));
+        assertEquals(1, engine.spoken.size());
+    }
+
+    @Test
+    public void utteranceIdsAreUniqueAcrossAnswers() {
+        scheduler.speak(1, "One.");
+        scheduler.speak(1, "One again.");
+        assertNotEquals(engine.spoken.get(0), engine.spoken.get(1));
+        assertEquals(2, scheduler.getQueueDepth());
+
+        scheduler.onEnd(engine.spoken.get(0));
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void bargeInStopsAndMutesCurrentInteraction() {
+        scheduler.speak(1, "A long answer.");
+        scheduler.bargeIn(1);
+
+        assertEquals(1, engine.stops);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertFalse(scheduler.speak(1, "More of the same answer."));
+        assertTrue(scheduler.speak(2, "The next answer."));
+    }
+
+    @Test
+    public void bargeInWithNothingQueuedDoesNotStopEngine() {
+        scheduler.bargeIn(0);
+        assertEquals(0, engine.stops);
+    }
+
+    @Test
+    public void bargeInMutesAnswerStillInFlight() {
+        scheduler.speak(1, "First answer.");
+        // Interaction 2 was sent but its answer has not arrived when the user starts talking
+        scheduler.bargeIn(2);
+
+        assertFalse(scheduler.speak(2, "Second answer, arriving late."));
+        assertEquals(1, engine.spoken.size());
+        assertTrue(scheduler.speak(3, "The next answer."));
+    }
+
+    @Test
+    public void measuresTimeToFirstAudio() {
+        assertEquals(-1, scheduler.getLastTimeToFirstAudioMs());
+        now = 1_000_000_000L;
+        scheduler.speak(1, "Hello.");
+        now += 250_000_000L;
+        scheduler.onStart(engine.spoken.get(0));
+        assertEquals(250, scheduler.getLastTimeToFirstAudioMs());
+
+        now += 1_000_000_000L;
+        scheduler.speak(2, "Again.");
+        now += 50_000_000L;
+        scheduler.onStart(engine.spoken.get(1));
+        assertEquals(50, scheduler.getLastTimeToFirstAudioMs());
+        assertEquals(150, scheduler.getAverageTimeToFirstAudioMs());
+    }
+
+    @Test
+    public void warmUpPlaysSilence() {
+        scheduler.warmUp();
+        assertEquals(1, engine.silences);
+        assertEquals(-1, scheduler.getWarmUpMs());
+
+        now += 80_000_000L;
+        scheduler.onEnd("warmup");
+        assertEquals(80, scheduler.getWarmUpMs());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void utteranceIdsMapBackToInteractions() {
+        assertEquals(42, SpeechScheduler.interactionOf("i42_3"));
+        assertEquals(-1, SpeechScheduler.interactionOf("warmup"));
+        assertEquals(-1, SpeechScheduler.interactionOf(null));
+    }
+
+    private static final class FakeEngine implements SpeechEngine {
+        final List<String> spoken = new ArrayList<>();
+        final List<Boolean> flushes = new ArrayList<>();
+        int silences;
+        int stops;
+
+        @Override
+        public boolean speak(String text, boolean flush, String utteranceId) {
+            spoken.add(utteranceId);
+            flushes.add(flush);
+            return true;
+        }
+
+        @Override
+        public boolean playSilence(long durationMs, String utteranceId) {
+            silences++;
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            stops++;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.jon.vcinteraction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TraceRecorder} segment writing, rotation and reading.
+ */
+public class TraceRecorderTest {
+    private static final int SEGMENT_SIZE = TraceRecorder.HEADER_SIZE + 4 * TraceRecorder.RECORD_SIZE;
+
+    private File directory;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("traces").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void eventsRoundTrip() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(directory, 3, SEGMENT_SIZE, () -> now);
+        now = 1000;
+        recorder.record(TraceRecorder.REQUEST_SENT, 7, TraceRecorder.ENDPOINT_VIDEO_TEXT, 12_000_000L);
+        now = 5000;
+        recorder.record(TraceRecorder.RESPONSE_RECEIVED, 7, 240);
+        recorder.close();
+
+        List<TraceRecorder.Event> events = TraceRecorder.read(directory);
+        assertEquals(2, events.size());
+        TraceRecorder.Event sent = events.get(0);
+        assertEquals(TraceRecorder.REQUEST_SENT, sent.type);
+        assertEquals(TraceRecorder.ENDPOINT_VIDEO_TEXT, sent.endpoint);
+        assertEquals(7, sent.interactionId);
+        assertEquals(1000, sent.timestampNanos);
+        assertEquals(12_000_000L, sent.value);
+        assertEquals(4000, events.get(1).timestampNanos - sent.timestampNanos);
+        assertEquals(240, events.get(1).value);
+    }
+
+    @Test
+    public void rotationKeepsNewestEventsInOrder() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(directory, 3, SEGMENT_SIZE, () -> now);
+        for (int i = 0; i < 20; i++) {
+            now = i;
+            recorder.record(TraceRecorder.TTS_STARTED, i, i);
+        }
+        recorder.close();
+
+        List<TraceRecorder.Event> events = TraceRecorder.read(directory);
+        // Three segments of four records: the last twelve survive
+        assertEquals(12, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(8 + i, events.get(i).interactionId);
+        }
+    }
+
+    @Test
+    public void reopeningStartsNewSegmentAfterPreviousRun() throws IOException {
+        TraceRecorder first = new TraceRecorder(directory, 3, SEGMENT_SIZE, () -> now);
+        first.record(TraceRecorder.SPEECH_RECOGNIZED, 1, 20);
+        first.close();
+        TraceRecorder second = new TraceRecorder(directory, 3, SEGMENT_SIZE, () -> now);
+        second.record(TraceRecorder.SPEECH_RECOGNIZED, 1, 30);
+        second.close();
+
+        List<TraceRecorder.Event> events = TraceRecorder.read(directory);
+        assertEquals(2, events.size());
+        assertEquals(20, events.get(0).value);
+        assertEquals(30, events.get(1).value);
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void endpointCodesMatchRequestPaths() {
+        assertEquals(TraceRecorder.ENDPOINT_TEXT, TraceRecorder.endpointCode("/text/"));
+        assertEquals(TraceRecorder.ENDPOINT_IMAGE_TEXT, TraceRecorder.endpointCode("/image-text/"));
+        assertEquals(TraceRecorder.ENDPOINT_VIDEO_TEXT, TraceRecorder.endpointCode("/video-text/"));
+        assertEquals(TraceRecorder.ENDPOINT_NONE, TraceRecorder.endpointCode("/session/"));
+        byte session = (byte) (TraceRecorder.ENDPOINT_IMAGE_TEXT | TraceRecorder.ENDPOINT_SESSION);
+        assertEquals(InteractionRequests.IMAGE_TEXT_ENDPOINT, TraceRecorder.endpointPath(session));
+    }
+}
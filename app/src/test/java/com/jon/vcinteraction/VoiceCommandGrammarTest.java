@@ -0,0 +1,103 @@
+package com.jon.vcinteraction;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link VoiceCommandGrammar}, including accuracy over a labelled corpus.
+ */
+public class VoiceCommandGrammarTest {
+    private static final double MIN_CORPUS_ACCURACY = 0.95;
+
+    private final VoiceCommandGrammar grammar = VoiceCommandGrammar.createDefault();
+
+    @Test
+    public void corpus_meetsAccuracyTarget() throws IOException {
+        int total = 0;
+        List<String> failures = new ArrayList<>();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("voice_command_corpus.tsv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                List<String> hypotheses = Arrays.asList(columns[1].split("\\|"));
+                VoiceCommandGrammar.Match match = grammar.match(hypotheses, null);
+                String actual = match == null ? "none" : match.command;
+                total++;
+                if (!columns[0].equals(actual)) {
+                    failures.add(columns[1] + " -> " + actual);
+                }
+            }
+        }
+        double accuracy = (double) (total - failures.size()) / total;
+        assertTrue("Accuracy " + accuracy + ", failures: " + failures, accuracy >= MIN_CORPUS_ACCURACY);
+    }
+
+    @Test
+    public void match_capturesSecondsSlot() {
+        VoiceCommandGrammar.Match match = grammar.match("please record a video for 8 seconds");
+        assertNotNull(match);
+        assertEquals(VoiceCommandGrammar.COMMAND_RECORD_VIDEO, match.command);
+        assertEquals("8", match.slot(VoiceCommandGrammar.SLOT_SECONDS));
+    }
+
+    @Test
+    public void match_parsesNumberWordInSecondsSlot() {
+        VoiceCommandGrammar.Match match = grammar.match("record for ten seconds");
+        assertNotNull(match);
+        assertEquals(VoiceCommandGrammar.COMMAND_RECORD_VIDEO, match.command);
+        assertEquals("10", match.slot(VoiceCommandGrammar.SLOT_SECONDS));
+    }
+
+    @Test
+    public void match_rejectsNonNumericSlot() {
+        VoiceCommandGrammar.Match match = grammar.match("record many seconds");
+        assertTrue(match == null || match.slot(VoiceCommandGrammar.SLOT_SECONDS) == null);
+    }
+
+    @Test
+    public void match_ignoresNegatedCommand() {
+        assertNull(grammar.match("don't take a picture"));
+        assertNull(grammar.match("never capture a photo"));
+    }
+
+    @Test
+    public void match_usesLowerRankedHypothesisWithConfidence() {
+        VoiceCommandGrammar.Match match = grammar.match(
+                Arrays.asList("tape a picture", "take a picture"), new float[]{0.55f, 0.45f});
+        assertNotNull(match);
+        assertEquals(VoiceCommandGrammar.COMMAND_CAPTURE_PHOTO, match.command);
+        assertEquals(1, match.hypothesisIndex);
+    }
+
+    @Test
+    public void match_ignoresLowConfidenceCommandAlternative() {
+        assertNull(grammar.match(
+                Arrays.asList("what is in this picture", "take a picture"), new float[]{0.9f, 0.2f}));
+    }
+
+    @Test
+    public void builder_supportsCustomCommands() {
+        VoiceCommandGrammar custom = new VoiceCommandGrammar.Builder()
+                .addCommand("zoom", "zoom {level}", "zoom in")
+                .build();
+        VoiceCommandGrammar.Match match = custom.match("zoom 3");
+        assertNotNull(match);
+        assertEquals("zoom", match.command);
+        assertEquals("3", match.slot("level"));
+        assertNull(custom.match("capture"));
+    }
+}
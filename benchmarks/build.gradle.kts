@@ -0,0 +1,57 @@
+// Pure-JVM benchmarks and load tests for the app's Android-free hot paths. Runs without a device:
+//   ./gradlew :benchmarks:jmh
+//   ./gradlew :benchmarks:loadTest --args="--concurrency=50 --duration=600"
+//   ./gradlew :benchmarks:traceReplay --args="--trace=path/to/traces"
+// JMH results are written as JSON to benchmarks/build/results/jmh/results.json for regression tracking.
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+sourceSets {
+    main {
+        java {
+            // Compile the app's Android-free classes directly so benchmarks always track the shipped code
+            srcDir("../app/src/main/java")
+            exclude("**/MainActivity.java")
+        }
+    }
+}
+
+dependencies {
+    implementation(libs.okhttp)
+    implementation(libs.mockwebserver)
+    testImplementation(libs.junit)
+    jmh(libs.jmh.core)
+    jmh(libs.jmh.generator.annprocess)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Drives the interaction client against a local mock inference server."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.jon.vcinteraction.loadtest.LoadTest")
+    maxHeapSize = "512m"
+}
+
+tasks.register<JavaExec>("traceReplay") {
+    group = "verification"
+    description = "Replays interaction traces recorded on a device against a local mock server."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.jon.vcinteraction.loadtest.TraceReplay")
+    maxHeapSize = "512m"
+}
@@ -0,0 +1,79 @@
+package com.jon.vcinteraction.benchmarks;
+
+import com.jon.vcinteraction.MediaFiles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy strategies for createTempFileFromUri: the buffered stream loop, FileChannel.transferTo
+ * and Okio, over photo- and clip-sized inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileCopyBenchmark {
+    // Roughly a thumbnail, a JPEG and a 5 second HIGHEST quality clip
+    @Param({"65536", "4194304", "33554432"})
+    public int size;
+
+    private File directory;
+    private File source;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("copy-bench").toFile();
+        source = new File(directory, "source.bin");
+        target = new File(directory, "target.bin");
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(source.toPath(), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.delete();
+        target.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public long streamLoop() throws IOException {
+        try (FileInputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(target)) {
+            return MediaFiles.streamCopy(in, out);
+        }
+    }
+
+    @Benchmark
+    public long channelTransfer() throws IOException {
+        try (FileInputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(target)) {
+            return MediaFiles.channelCopy(in, out);
+        }
+    }
+
+    @Benchmark
+    public long okio() throws IOException {
+        try (FileInputStream in = new FileInputStream(source)) {
+            return MediaFiles.okioCopy(in, target);
+        }
+    }
+}
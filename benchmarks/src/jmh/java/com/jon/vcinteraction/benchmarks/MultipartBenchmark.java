@@ -0,0 +1,76 @@
+package com.jon.vcinteraction.benchmarks;
+
+import com.jon.vcinteraction.InteractionRequests;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Builds and encodes the multipart bodies sent by sendTextToServer, sendImageAndTextToServer and
+ * sendVideoAndTextToServer into a discarding sink, measuring encoding throughput without a network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MultipartBenchmark {
+    private static final String QUESTION = "What is written on the sign in front of me?";
+
+    @Param({"1048576", "16777216"})
+    public int mediaSize;
+
+    private final InteractionRequests requests = new InteractionRequests("http://localhost:8000/");
+    private File media;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        media = File.createTempFile("multipart-bench", ".bin");
+        byte[] data = new byte[mediaSize];
+        new Random(42).nextBytes(data);
+        Files.write(media.toPath(), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        media.delete();
+    }
+
+    @Benchmark
+    public long text() throws IOException {
+        return encode(requests.text(QUESTION));
+    }
+
+    @Benchmark
+    public long imageAndText() throws IOException {
+        return encode(requests.imageAndText(media, QUESTION));
+    }
+
+    @Benchmark
+    public long videoAndText() throws IOException {
+        return encode(requests.videoAndText(media, QUESTION));
+    }
+
+    private static long encode(Request request) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.blackhole())) {
+            request.body().writeTo(sink);
+            return request.body().contentLength();
+        }
+    }
+}
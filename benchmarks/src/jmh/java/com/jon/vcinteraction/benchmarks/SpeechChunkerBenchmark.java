@@ -0,0 +1,44 @@
+package com.jon.vcinteraction.benchmarks;
+
+import com.jon.vcinteraction.SpeechChunker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sentence chunking done by speakResponseWithTTS, from a typical short answer up to a long one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpeechChunkerBenchmark {
+    private static final String SENTENCE = "The sign says the store opens at nine in the morning. ";
+
+    @Param({"3", "80", "800"})
+    public int sentences;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            builder.append(SENTENCE);
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public List<String> split() {
+        return SpeechChunker.split(text, SpeechChunker.DEFAULT_CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,42 @@
+package com.jon.vcinteraction.benchmarks;
+
+import com.jon.vcinteraction.VoiceCommandGrammar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring a full five-alternative N-best list, as handleVoiceCommandResult does per utterance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VoiceCommandGrammarBenchmark {
+    private final VoiceCommandGrammar grammar = VoiceCommandGrammar.createDefault();
+    private final float[] confidences = {0.62f, 0.21f, 0.09f, 0.05f, 0.03f};
+    private final List<String> command = Arrays.asList(
+            "could you take a picture please", "could you take a pitcher please",
+            "could you tape a picture please", "could you take the picture", "good you take a picture");
+    private final List<String> question = Arrays.asList(
+            "what is written on the sign in this picture", "what is written on the sign in this pitcher",
+            "what is written on this sign in the picture", "what's written on the sign in this picture",
+            "what is ridden on the sign in this picture");
+
+    @Benchmark
+    public VoiceCommandGrammar.Match commandUtterance() {
+        return grammar.match(command, confidences);
+    }
+
+    @Benchmark
+    public VoiceCommandGrammar.Match freeTextUtterance() {
+        return grammar.match(question, confidences);
+    }
+}
@@ -0,0 +1,226 @@
+package com.jon.vcinteraction.loadtest;
+
+import com.jon.vcinteraction.BandwidthMeter;
+import com.jon.vcinteraction.InteractionClient;
+import com.jon.vcinteraction.InteractionRequests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+
+/**
+ * Closed-loop load generator and soak harness. Keeps a fixed number of interactions outstanding
+ * against a {@link MockInferenceServer} through the app's {@link InteractionClient} and reports
+ * throughput, latency percentiles, retry amplification and heap growth.
+ *
+ * <pre>
+ * ./gradlew :benchmarks:loadTest --args="--concurrency=50 --duration=600 --latency=800 --error-rate=0.02"
+ * </pre>
+ */
+public class LoadTest {
+    private static final String QUESTION = "What is written on the sign in front of me?";
+
+    private final Options options;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final AtomicInteger successes = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong heapPeak = new AtomicLong();
+    private final BandwidthMeter uploadMeter = new BandwidthMeter();
+
+    private LoadTest(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(Options.parse(args)).run();
+    }
+
+    private void run() throws Exception {
+        int concurrency = (int) options.get("concurrency", 50);
+        long requests = options.get("requests", 500);
+        long durationSeconds = options.get("duration", 0); // a non-zero duration turns the run into a soak
+        double imageShare = options.get("image-share", 0.5);
+        double videoShare = options.get("video-share", 0.2);
+        int imageSize = (int) options.get("image-size", 2 * 1024 * 1024);
+        int videoSize = (int) options.get("video-size", 12 * 1024 * 1024);
+
+        File image = mediaFile(".jpg", imageSize);
+        File video = mediaFile(".mp4", videoSize);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+        try (MockInferenceServer server = new MockInferenceServer(
+                options.get("latency", 500L), options.get("jitter", 250L), options.get("error-rate", 0.0),
+                options.get("disconnect-rate", 0.0), options.get("bandwidth", 0L))) {
+            server.start();
+            InteractionRequests builder = new InteractionRequests(server.baseUrl());
+            builder.setUploadMonitor(uploadMeter, null);
+            InteractionClient client = new InteractionClient(InteractionClient.defaultClientBuilder().build());
+
+            long heapStart = usedHeapAfterGc();
+            heapPeak.set(heapStart);
+            sampler.scheduleAtFixedRate(() -> {
+                try {
+                    server.discardRecordedRequests();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                heapPeak.accumulateAndGet(usedHeap(), Math::max);
+            }, 1, 1, TimeUnit.SECONDS);
+
+            Semaphore inFlight = new Semaphore(concurrency);
+            long start = System.nanoTime();
+            long deadline = durationSeconds > 0 ? start + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+            long issued = 0;
+            while (durationSeconds > 0 ? System.nanoTime() < deadline : issued < requests) {
+                inFlight.acquire();
+                issued++;
+                double kind = ThreadLocalRandom.current().nextDouble();
+                Request request = kind < videoShare ? builder.videoAndText(video, QUESTION)
+                        : kind < videoShare + imageShare ? builder.imageAndText(image, QUESTION)
+                        : builder.text(QUESTION);
+                long sent = System.nanoTime();
+                client.send(request, new InteractionClient.Listener() {
+                    @Override
+                    public void onSuccess(String responseBody) {
+                        latencies.record(System.nanoTime() - sent);
+                        successes.incrementAndGet();
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onError(String errorMessage, IOException cause) {
+                        latencies.record(System.nanoTime() - sent);
+                        failures.incrementAndGet();
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        failures.incrementAndGet();
+                        inFlight.release();
+                    }
+                });
+            }
+            inFlight.acquire(concurrency);
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            sampler.shutdownNow();
+            server.discardRecordedRequests();
+            long heapEnd = usedHeapAfterGc();
+
+            client.shutdown();
+            report(issued, server.requestCount(), elapsedSeconds, heapStart, heapEnd);
+        } finally {
+            sampler.shutdownNow();
+            image.delete();
+            video.delete();
+        }
+    }
+
+    private void report(long issued, int serverRequests, double elapsedSeconds, long heapStart, long heapEnd)
+            throws IOException {
+        new Report()
+                .put("interactions", issued)
+                .put("successes", successes.get())
+                .put("failures", failures.get())
+                .put("elapsedSeconds", elapsedSeconds)
+                .put("throughputPerSecond", issued / elapsedSeconds)
+                .percentiles("latency", latencies, 50, 90, 99)
+                .put("latencyMaxMs", latencies.percentileMillis(100))
+                .put("uploadEstimateBytesPerSecond", uploadMeter.getEstimateBytesPerSecond())
+                .put("serverRequests", serverRequests)
+                // More server requests than interactions means retryOnConnectionFailure replayed uploads
+                .put("retryAmplification", issued == 0 ? 0.0 : (double) serverRequests / issued)
+                .put("heapStartBytes", heapStart)
+                .put("heapEndBytes", heapEnd)
+                .put("heapPeakBytes", heapPeak.get())
+                .put("heapGrowthBytesPerHour", (heapEnd - heapStart) * 3600.0 / elapsedSeconds)
+                .write(options.get("json"));
+    }
+
+    private static File mediaFile(String suffix, int size) throws IOException {
+        File file = File.createTempFile("loadtest_", suffix);
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return usedHeap();
+    }
+
+    /**
+     * Fixed-size log-linear latency histogram: 64 linear sub-buckets per power of two of
+     * microseconds, so percentiles are within about 1.5% and memory stays constant however long
+     * a soak runs.
+     */
+    static final class LatencyRecorder {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Up to 2^40 us, about 12 days
+        private static final int MAX_EXPONENT = 40;
+
+        private final long[] counts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+        private long count;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts[Math.min(index(micros), counts.length - 1)]++;
+            count++;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized double percentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            if (percentile >= 100) {
+                return maxNanos / 1e6;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(midpointMicros(i) / 1e3, maxNanos / 1e6);
+                }
+            }
+            return maxNanos / 1e6;
+        }
+
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static double midpointMicros(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lower + ((1L << shift) - 1) / 2.0;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.jon.vcinteraction.loadtest;
+
+import com.jon.vcinteraction.InteractionClient;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Local stand-in for the inference server with configurable latency, failures and bandwidth.
+ */
+public class MockInferenceServer implements AutoCloseable {
+    private static final String ANSWER = "The sign says the store opens at nine in the morning.";
+
+    private final MockWebServer server = new MockWebServer();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double errorRate;
+    private final double disconnectRate;
+    private final long bytesPerSecond;
+
+    public MockInferenceServer(long latencyMs, long jitterMs, double errorRate, double disconnectRate,
+                               long bytesPerSecond) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.disconnectRate = disconnectRate;
+        this.bytesPerSecond = bytesPerSecond;
+        // Keep recorded uploads out of the heap so soak runs measure the client, not the mock
+        server.setBodyLimit(0);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                requestCount.incrementAndGet();
+                return respond();
+            }
+
+            @Override
+            public MockResponse peek() {
+                // MockWebServer takes the upload throttle from peek(), not from dispatch()
+                return bytesPerSecond > 0 ? throttled(new MockResponse()) : super.peek();
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public String baseUrl() {
+        return server.url("/").toString();
+    }
+
+    /**
+     * Requests that reached the server, including transparent client retries.
+     */
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Drops the requests MockWebServer queues for inspection, which would otherwise grow without
+     * bound over a soak run.
+     */
+    public void discardRecordedRequests() throws InterruptedException {
+        while (server.takeRequest(0, TimeUnit.MILLISECONDS) != null) {
+            // Discard
+        }
+    }
+
+    private MockResponse respond() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double roll = random.nextDouble();
+        if (roll < disconnectRate) {
+            // Upload read, connection dropped without an answer; OkHttp may transparently replay it
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+        }
+
+        MockResponse response;
+        if (roll < disconnectRate + errorRate) {
+            response = new MockResponse().setResponseCode(500).setBody("CUDA out of memory");
+        } else {
+            response = new MockResponse().setBody("[\"" + ANSWER + "\"]");
+        }
+
+        long delay = latencyMs + (jitterMs > 0 ? random.nextLong(jitterMs + 1) : 0);
+        response.setHeadersDelay(delay, TimeUnit.MILLISECONDS)
+                .setHeader(InteractionClient.PROCESSING_TIME_HEADER, delay);
+        return bytesPerSecond > 0 ? throttled(response) : response;
+    }
+
+    private MockResponse throttled(MockResponse response) {
+        return response.throttleBody(Math.max(1, bytesPerSecond / 10), 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+}
@@ -0,0 +1,51 @@
+package com.jon.vcinteraction.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code --name=value} command line options shared by the load test harnesses. A bare
+ * {@code --name} is read as "true".
+ */
+final class Options {
+    private final Map<String, String> values;
+
+    private Options(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static Options parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            values.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        return new Options(values);
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * @return the value, or null if the option was not given
+     */
+    String get(String name) {
+        return values.get(name);
+    }
+
+    long get(String name, long defaultValue) {
+        return has(name) ? Long.parseLong(values.get(name)) : defaultValue;
+    }
+
+    double get(String name, double defaultValue) {
+        return has(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    boolean get(String name, boolean defaultValue) {
+        return has(name) ? Boolean.parseBoolean(values.get(name)) : defaultValue;
+    }
+}
@@ -0,0 +1,53 @@
+package com.jon.vcinteraction.loadtest;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of a load test run, printed as an aligned table and optionally written as flat JSON
+ * for regression tracking.
+ */
+final class Report {
+    private final Map<String, Object> results = new LinkedHashMap<>();
+
+    Report put(String name, Object value) {
+        results.put(name, value);
+        return this;
+    }
+
+    /**
+     * Adds {@code <prefix>P<n>Ms} entries for each percentile.
+     */
+    Report percentiles(String prefix, LoadTest.LatencyRecorder latencies, int... percentiles) {
+        for (int percentile : percentiles) {
+            put(prefix + "P" + percentile + "Ms", latencies.percentileMillis(percentile));
+        }
+        return this;
+    }
+
+    /**
+     * Prints the results and, if jsonPath is not null, writes them there as JSON.
+     */
+    void write(String jsonPath) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        for (Map.Entry<String, Object> entry : results.entrySet()) {
+            Object value = entry.getValue();
+            String formatted = value instanceof Double
+                    ? String.format(Locale.US, "%.3f", (Double) value) : String.valueOf(value);
+            System.out.printf(Locale.US, "%-24s %s%n", entry.getKey(), formatted);
+            json.append("  \"").append(entry.getKey()).append("\": ").append(formatted).append(",\n");
+        }
+        json.setLength(json.length() - 2);
+        json.append("\n}\n");
+
+        if (jsonPath != null) {
+            try (Writer writer = new FileWriter(jsonPath)) {
+                writer.write(json.toString());
+            }
+        }
+    }
+}
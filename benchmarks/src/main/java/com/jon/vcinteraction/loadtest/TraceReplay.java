@@ -0,0 +1,389 @@
+package com.jon.vcinteraction.loadtest;
+
+import com.jon.vcinteraction.InteractionClient;
+import com.jon.vcinteraction.InteractionRequests;
+import com.jon.vcinteraction.TraceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSink;
+
+/**
+ * Replays interaction traces recorded on a device by {@link TraceRecorder} against a local mock
+ * server. Requests go out through the app's {@link InteractionClient} with the recorded spacing,
+ * as multipart forms of the recorded size. The server answers after the processing time it
+ * reported in the field, with the recorded response size, so the network share of the latency
+ * is whatever the replay link adds; {@code --field-network} also delays each answer body by the
+ * recorded network time. The report compares replayed latencies with the field.
+ *
+ * <p>Limits: interactions traced before servers reported processing time, and failed or
+ * cancelled ones, have no split and wait out the whole recorded round trip. Interactions that
+ * went over the WebSocket session are replayed as HTTP requests of the same kind and size, so
+ * session framing, interleaving and streaming are not reproduced; the report counts them.
+ *
+ * <pre>
+ * adb exec-out run-as com.jon.vcinteraction tar c files/traces | tar x
+ * ./gradlew :benchmarks:traceReplay --args="--trace=files/traces --speed=1 --max-idle=10"
+ * </pre>
+ */
+public class TraceReplay {
+    private static final String INTERACTION_HEADER = "X-Trace-Interaction";
+    private static final byte[] FILLER = new byte[64 * 1024];
+
+    private final Options options;
+    private final Map<String, Interaction> byKey = new ConcurrentHashMap<>();
+    private final LoadTest.LatencyRecorder replayLatencies = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder fieldLatencies = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder fieldServerTimes = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder fieldNetworkTimes = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder captureToSend = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder timeToFirstAudio = new LoadTest.LatencyRecorder();
+    private final LoadTest.LatencyRecorder speechDurations = new LoadTest.LatencyRecorder();
+    private final AtomicInteger successes = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger cancellations = new AtomicInteger();
+    private int sessionInteractions;
+
+    private TraceReplay(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (!options.has("trace")) {
+            throw new IllegalArgumentException("Missing --trace=<directory>");
+        }
+        new TraceReplay(options).run();
+    }
+
+    private void run() throws Exception {
+        double speed = options.get("speed", 1.0);
+        long maxIdleNanos = (long) (options.get("max-idle", 10.0) * 1e9);
+        boolean fieldNetwork = options.get("field-network", false);
+
+        List<Interaction> interactions = load(new File(options.get("trace")));
+        if (interactions.isEmpty()) {
+            System.out.println("No complete interactions in trace");
+            return;
+        }
+
+        MockWebServer server = new MockWebServer();
+        server.setBodyLimit(0);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                Interaction interaction = byKey.get(request.getHeader(INTERACTION_HEADER));
+                return interaction != null ? interaction.response(speed, fieldNetwork)
+                        : new MockResponse().setResponseCode(404);
+            }
+        });
+        server.start();
+
+        InteractionClient client = new InteractionClient(InteractionClient.defaultClientBuilder().build());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch finished = new CountDownLatch(interactions.size());
+        try {
+            // Keep the recorded spacing, but squeeze long idle stretches between sessions
+            long offsetNanos = 0;
+            long previousSent = interactions.get(0).sentAt;
+            for (Interaction interaction : interactions) {
+                offsetNanos += Math.min(interaction.sentAt - previousSent, maxIdleNanos);
+                previousSent = interaction.sentAt;
+                Request request = new Request.Builder()
+                        .url(server.url("/" + interaction.endpointPath()))
+                        .header(INTERACTION_HEADER, interaction.key)
+                        .post(interaction.body())
+                        .build();
+                scheduler.schedule(() -> send(client, interaction, request, finished),
+                        (long) (offsetNanos / speed), TimeUnit.NANOSECONDS);
+            }
+            finished.await();
+        } finally {
+            scheduler.shutdownNow();
+            client.shutdown();
+            server.shutdown();
+        }
+        report(interactions.size());
+    }
+
+    private void send(InteractionClient client, Interaction interaction, Request request, CountDownLatch finished) {
+        long sent = System.nanoTime();
+        // Like the app, a new question supersedes whatever is still in flight
+        client.supersede(request, new InteractionClient.Listener() {
+            @Override
+            public void onSuccess(String responseBody) {
+                replayLatencies.record(System.nanoTime() - sent);
+                successes.incrementAndGet();
+                finished.countDown();
+            }
+
+            @Override
+            public void onError(String errorMessage, IOException cause) {
+                replayLatencies.record(System.nanoTime() - sent);
+                failures.incrementAndGet();
+                finished.countDown();
+            }
+
+            @Override
+            public void onCancelled() {
+                cancellations.incrementAndGet();
+                finished.countDown();
+            }
+        });
+    }
+
+    /**
+     * Folds trace events into interactions, keeping those whose request and outcome were both
+     * recorded, ordered by send time.
+     */
+    private List<Interaction> load(File directory) throws IOException {
+        Map<String, Interaction> all = new LinkedHashMap<>();
+        for (TraceRecorder.Event event : TraceRecorder.read(directory)) {
+            String key = event.runStartMs + "#" + event.interactionId;
+            Interaction interaction = all.get(key);
+            if (interaction == null) {
+                interaction = new Interaction(key);
+                all.put(key, interaction);
+            }
+            interaction.add(event);
+        }
+
+        List<Interaction> complete = new ArrayList<>();
+        for (Interaction interaction : all.values()) {
+            if (interaction.sentAt >= 0 && interaction.outcome != 0) {
+                complete.add(interaction);
+                byKey.put(interaction.key, interaction);
+                if ((interaction.endpoint & TraceRecorder.ENDPOINT_SESSION) != 0) {
+                    sessionInteractions++;
+                }
+                interaction.recordStats();
+            }
+        }
+        Collections.sort(complete, (a, b) -> Long.compare(a.sentAt, b.sentAt));
+        return complete;
+    }
+
+    private void report(int replayed) throws IOException {
+        new Report()
+                .put("interactions", replayed)
+                .put("successes", successes.get())
+                .put("failures", failures.get())
+                .put("cancellations", cancellations.get())
+                .put("sessionInteractions", sessionInteractions)
+                .percentiles("fieldLatency", fieldLatencies, 50, 90, 99)
+                .percentiles("replayLatency", replayLatencies, 50, 90, 99)
+                // Field round trips split by the processing time the server reported
+                .percentiles("fieldServer", fieldServerTimes, 50, 90)
+                .percentiles("fieldNetwork", fieldNetworkTimes, 50, 90)
+                // Stages that happen on the device only, reported from the trace as recorded
+                .percentiles("captureToSend", captureToSend, 50, 90)
+                .percentiles("timeToFirstAudio", timeToFirstAudio, 50, 90)
+                .percentiles("speechDuration", speechDurations, 50)
+                .write(options.get("json"));
+    }
+
+    /**
+     * One recorded interaction. Times are nanoseconds on a timeline shared by all runs.
+     */
+    private final class Interaction {
+        final String key;
+        byte endpoint;
+        long capturedAt = -1;
+        long sentAt = -1;
+        long payloadBytes;
+        long finishedAt = -1;
+        long responseBytes;
+        long serverMs = -1;
+        byte outcome;
+        long firstAudioAt = -1;
+        long lastAudioAt = -1;
+
+        Interaction(String key) {
+            this.key = key;
+        }
+
+        void add(TraceRecorder.Event event) {
+            long at = TimeUnit.MILLISECONDS.toNanos(event.runStartMs) + event.timestampNanos;
+            switch (event.type) {
+                case TraceRecorder.RECORD_STARTED:
+                case TraceRecorder.SPEECH_RECOGNIZED:
+                    if (capturedAt < 0) {
+                        capturedAt = at;
+                    }
+                    break;
+                case TraceRecorder.REQUEST_SENT:
+                    sentAt = at;
+                    endpoint = event.endpoint;
+                    payloadBytes = Math.max(0, event.value);
+                    break;
+                case TraceRecorder.RESPONSE_RECEIVED:
+                case TraceRecorder.REQUEST_FAILED:
+                case TraceRecorder.REQUEST_CANCELLED:
+                    outcome = event.type;
+                    finishedAt = at;
+                    responseBytes = event.value;
+                    break;
+                case TraceRecorder.SERVER_PROCESSED:
+                    serverMs = event.value;
+                    break;
+                case TraceRecorder.TTS_STARTED:
+                    if (firstAudioAt < 0) {
+                        firstAudioAt = at;
+                    }
+                    break;
+                case TraceRecorder.TTS_DONE:
+                    lastAudioAt = at;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void recordStats() {
+            if (outcome != TraceRecorder.REQUEST_CANCELLED) {
+                fieldLatencies.record(finishedAt - sentAt);
+            }
+            if (hasServerTime()) {
+                fieldServerTimes.record(serverNanos());
+                fieldNetworkTimes.record(finishedAt - sentAt - serverNanos());
+            }
+            if (capturedAt >= 0 && capturedAt <= sentAt) {
+                captureToSend.record(sentAt - capturedAt);
+            }
+            if (outcome == TraceRecorder.RESPONSE_RECEIVED && firstAudioAt >= finishedAt) {
+                timeToFirstAudio.record(firstAudioAt - finishedAt);
+                if (lastAudioAt >= firstAudioAt) {
+                    speechDurations.record(lastAudioAt - firstAudioAt);
+                }
+            }
+        }
+
+        String endpointPath() {
+            String path = TraceRecorder.endpointPath(endpoint);
+            return path != null ? path : InteractionRequests.TEXT_ENDPOINT;
+        }
+
+        boolean hasServerTime() {
+            return serverMs >= 0 && outcome == TraceRecorder.RESPONSE_RECEIVED;
+        }
+
+        long serverNanos() {
+            return Math.min(TimeUnit.MILLISECONDS.toNanos(serverMs), finishedAt - sentAt);
+        }
+
+        /**
+         * A form shaped like the app's request. Over HTTP the recorded size is the whole form, so
+         * the media or text part is sized to match it; over the session it is the media or text
+         * alone.
+         */
+        RequestBody body() throws IOException {
+            boolean session = (endpoint & TraceRecorder.ENDPOINT_SESSION) != 0;
+            String path = endpointPath();
+            if (path.equals(InteractionRequests.TEXT_ENDPOINT)) {
+                long overhead = session ? 0 : textForm(0).contentLength();
+                return textForm((int) Math.min(Math.max(payloadBytes - overhead, 0), Integer.MAX_VALUE));
+            }
+            boolean video = path.equals(InteractionRequests.VIDEO_TEXT_ENDPOINT);
+            long overhead = session ? 0 : mediaForm(video, 0).contentLength();
+            return mediaForm(video, Math.max(payloadBytes - overhead, 0));
+        }
+
+        /**
+         * Answers after the recorded server time, or the whole recorded round trip when the trace
+         * has no split. Cancelled interactions get an answer no sooner than when the device gave
+         * up on them, so the next request supersedes it as in the field.
+         */
+        MockResponse response(double speed, boolean fieldNetwork) {
+            MockResponse response;
+            if (outcome == TraceRecorder.REQUEST_FAILED) {
+                response = new MockResponse().setResponseCode(500).setBody("replayed failure");
+            } else {
+                char[] body = new char[(int) Math.min(Math.max(responseBytes, 0), Integer.MAX_VALUE)];
+                Arrays.fill(body, 'a');
+                response = new MockResponse().setBody(new String(body));
+            }
+            long roundTrip = finishedAt - sentAt;
+            if (!hasServerTime()) {
+                return response.setHeadersDelay(Math.max(0, (long) (roundTrip / speed)), TimeUnit.NANOSECONDS);
+            }
+            response.setHeadersDelay((long) (serverNanos() / speed), TimeUnit.NANOSECONDS)
+                    .setHeader(InteractionClient.PROCESSING_TIME_HEADER, serverMs);
+            if (fieldNetwork) {
+                response.setBodyDelay((long) ((roundTrip - serverNanos()) / speed), TimeUnit.NANOSECONDS);
+            }
+            return response;
+        }
+    }
+
+    private static MultipartBody textForm(int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, 'a');
+        return new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("text", new String(text))
+                .build();
+    }
+
+    private static MultipartBody mediaForm(boolean video, long size) {
+        return new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart(video ? "video" : "image", video ? "replay.mp4" : "replay.jpg",
+                        new SizedBody(size, video ? InteractionRequests.VIDEO_MP4 : InteractionRequests.IMAGE_JPEG))
+                .addFormDataPart("text", "replayed question")
+                .build();
+    }
+
+    /**
+     * Upload of a recorded size without holding the bytes in memory.
+     */
+    private static final class SizedBody extends RequestBody {
+        private final long size;
+        private final MediaType type;
+
+        SizedBody(long size, MediaType type) {
+            this.size = size;
+            this.type = type;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return type;
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long remaining = size;
+            while (remaining > 0) {
+                int count = (int) Math.min(remaining, FILLER.length);
+                sink.write(FILLER, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.jon.vcinteraction.loadtest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link LoadTest.LatencyRecorder} percentile accuracy.
+ */
+public class LatencyRecorderTest {
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LoadTest.LatencyRecorder recorder = new LoadTest.LatencyRecorder();
+        for (int ms = 1; ms <= 1000; ms++) {
+            recorder.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+        assertEquals(500, recorder.percentileMillis(50), 500 * 0.02);
+        assertEquals(900, recorder.percentileMillis(90), 900 * 0.02);
+        assertEquals(990, recorder.percentileMillis(99), 990 * 0.02);
+        assertEquals(1000, recorder.percentileMillis(100), 0.001);
+    }
+
+    @Test
+    public void emptyAndTinySamples() {
+        LoadTest.LatencyRecorder recorder = new LoadTest.LatencyRecorder();
+        assertEquals(0, recorder.percentileMillis(50), 0);
+        recorder.record(500);
+        assertEquals(0.0005, recorder.percentileMillis(50), 0.001);
+    }
+}
@@ -0,0 +1,44 @@
+package com.jon.vcinteraction.loadtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link MockInferenceServer}'s bandwidth limit actually slows uploads.
+ */
+public class MockInferenceServerTest {
+    @Test
+    public void throttledUploadTakesAtLeastBytesOverBandwidth() throws IOException {
+        long bandwidth = 256 * 1024;
+        byte[] upload = new byte[512 * 1024];
+        OkHttpClient client = new OkHttpClient.Builder()
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+        try (MockInferenceServer server = new MockInferenceServer(0, 0, 0, 0, bandwidth)) {
+            server.start();
+            Request request = new Request.Builder()
+                    .url(server.baseUrl() + "video-text/")
+                    .post(RequestBody.create(upload, MediaType.parse("video/mp4")))
+                    .build();
+            long start = System.nanoTime();
+            try (Response response = client.newCall(request).execute()) {
+                assertTrue(response.isSuccessful());
+                response.body().string();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double minimum = (double) upload.length / bandwidth;
+            assertTrue("Upload took " + seconds + " s, expected at least " + minimum, seconds >= minimum * 0.9);
+        }
+    }
+}
@@ -1,5 +1,5 @@
-from fastapi import FastAPI, HTTPException, UploadFile, File, Form
-from transformers import Qwen2VLForConditionalGeneration, AutoProcessor
+from fastapi import FastAPI, HTTPException, UploadFile, File, Form, Response, WebSocket, WebSocketDisconnect
+from transformers import Qwen2VLForConditionalGeneration, AutoProcessor, TextStreamer, StoppingCriteria, StoppingCriteriaList
 import torch
 from qwen_vl_utils import process_vision_info
 from PIL import Image
@@ -7,9 +7,17 @@ import io
 import cv2
 import tempfile
 import os
+import hashlib
+import struct
+import asyncio
+import functools
+import threading
+import time
+from concurrent.futures import ThreadPoolExecutor
+from collections import OrderedDict
 from webS import summary as web_search
 from Wiki import summary as wiki_search
-from typing import List, Dict
+from typing import List, Dict, Optional
 
 # Initialize FastAPI app
 app = FastAPI()
@@ -27,6 +35,48 @@ class ChatHistory:
 
 chat_history = ChatHistory()
 
+class MediaCache:
+    """Recently uploaded media keyed by SHA-256 so clients can refer to it by hash."""
+    def __init__(self, max_bytes: int = 256 * 1024 * 1024):
+        self.items: "OrderedDict[str, bytes]" = OrderedDict()
+        self.max_bytes = max_bytes
+        self.size = 0
+
+    def get(self, digest: str) -> Optional[bytes]:
+        data = self.items.get(digest)
+        if data is not None:
+            self.items.move_to_end(digest)
+        return data
+
+    def put(self, digest: str, data: bytes):
+        if digest in self.items:
+            self.items.move_to_end(digest)
+            return
+        self.items[digest] = data
+        self.size += len(data)
+        while self.size > self.max_bytes and len(self.items) > 1:
+            _, evicted = self.items.popitem(last=False)
+            self.size -= len(evicted)
+
+media_cache = MediaCache()
+
+async def resolve_media(upload: Optional[UploadFile], digest: Optional[str]) -> bytes:
+    """Return uploaded bytes (cached under their hash) or the cached bytes for a hash reference."""
+    if upload is not None:
+        data = await upload.read()
+        if digest:
+            if hashlib.sha256(data).hexdigest() != digest.lower():
+                raise HTTPException(status_code=400, detail="Media hash mismatch")
+            media_cache.put(digest.lower(), data)
+        return data
+    if digest:
+        data = media_cache.get(digest.lower())
+        if data is None:
+            # Client falls back to uploading the bytes
+            raise HTTPException(status_code=409, detail="Unknown media hash")
+        return data
+    raise HTTPException(status_code=400, detail="No media provided")
+
 # Load the Qwen2-VL model and processor
 model = Qwen2VLForConditionalGeneration.from_pretrained(
     "Qwen/Qwen2-VL-7B-Instruct-GPTQ-Int4",
@@ -42,69 +92,33 @@ processor = AutoProcessor.from_pretrained(
     "Qwen/Qwen2-VL-7B-Instruct-GPTQ-Int4", min_pixels=min_pixels, max_pixels=max_pixels
 )
 
-# text-only interaction endpoint
-@app.post("/text/")
-async def text_interaction(text: str = Form(...)):
-    try:
-        # Process search/wiki queries
-        response_text = ""
-        if text.lower().startswith("search "):
-            query = text[7:]  # Remove "search " prefix
-            search_result = web_search(query)
-            response_text = search_result[:1000]  # Limit response length
-        elif text.lower().startswith("wiki "):
-            query = text[5:]  # Remove "wiki " prefix
-            wiki_result = wiki_search(query)
-            response_text = wiki_result[:1000]  # Limit response length
-        
-        if response_text:
-            # For regular queries, use the model
-            messages = [
-                {"role": "system", "content": "You are a Akumen AI assistant.Provide an answer based only on the provided documents. If the answer is not found in the documents, respond with 'I'm not sure .Keep responses concise 1 to 3 sentense if user dont ask long answer, limited to 8 sentences."}
-            ] + chat_history.history + [{"role": "user", "content": text+f"\ndocuments\n{response_text}"}]
-        else:messages = [
-                {"role": "system", "content": "You are a Akumen AI assistant.You are developed a Akumen AI .Keep responses concise 1 to 3 sentense if user dont ask long answer, limited to 8 sentences."}
-            ] + chat_history.history + [{"role": "user", "content": text}]
-
-        text_input_processed = processor.apply_chat_template(
-            messages, tokenize=False, add_generation_prompt=True
-        )
-        inputs = processor(
-            text=[text_input_processed],
-            padding=True,
-            return_tensors="pt",
-        )
-        inputs = inputs.to("cuda")
+def text_messages(text: str) -> List[Dict]:
+    # Process search/wiki queries
+    response_text = ""
+    if text.lower().startswith("search "):
+        query = text[7:]  # Remove "search " prefix
+        search_result = web_search(query)
+        response_text = search_result[:1000]  # Limit response length
+    elif text.lower().startswith("wiki "):
+        query = text[5:]  # Remove "wiki " prefix
+        wiki_result = wiki_search(query)
+        response_text = wiki_result[:1000]  # Limit response length
 
-        generated_ids = model.generate(**inputs, max_new_tokens=256, temperature=0.7)
-        generated_ids_trimmed = [
-            out_ids[len(in_ids):] for in_ids, out_ids in zip(inputs.input_ids, generated_ids)
-        ]
-        output_text = processor.batch_decode(
-            generated_ids_trimmed, skip_special_tokens=True, clean_up_tokenization_spaces=False
-        )[0]
+    if response_text:
+        # For regular queries, use the model
+        return [
+            {"role": "system", "content": "You are a Akumen AI assistant.Provide an answer based only on the provided documents. If the answer is not found in the documents, respond with 'I'm not sure .Keep responses concise 1 to 3 sentense if user dont ask long answer, limited to 8 sentences."}
+        ] + chat_history.history + [{"role": "user", "content": text+f"\ndocuments\n{response_text}"}]
+    return [
+        {"role": "system", "content": "You are a Akumen AI assistant.You are developed a Akumen AI .Keep responses concise 1 to 3 sentense if user dont ask long answer, limited to 8 sentences."}
+    ] + chat_history.history + [{"role": "user", "content": text}]
 
-        # Add to chat history
-        chat_history.add_message("user", text)
-        chat_history.add_message("assistant", output_text)
-
-        return {output_text}
-
-    except Exception as e:
-        raise HTTPException(status_code=500, detail=str(e))
-
-# Image-text interaction endpoint with local file upload
-@app.post("/image-text/")
-async def image_text_interaction(image: UploadFile = File(...), text: str = Form(...)):
-    # Read and process the uploaded image
+def image_messages(text: str, image_data: bytes) -> List[Dict]:
     try:
-        image_data = await image.read()
         image_pil = Image.open(io.BytesIO(image_data)).convert("RGB")
     except Exception as e:
         raise HTTPException(status_code=400, detail=f"Error processing image: {str(e)}")
-
-    # Prepare the input messages for the model
-    messages = [
+    return [
         {
             "role": "user",
             "content": [
@@ -114,39 +128,11 @@ async def image_text_interaction(image: UploadFile = File(...), text: str = Form
         }
     ]
 
-    # Process vision info and prepare inputs
-    text_input_processed = processor.apply_chat_template(
-        messages, tokenize=False, add_generation_prompt=True
-    )
-    image_inputs, video_inputs = process_vision_info(messages)
-    inputs = processor(
-        text=[text_input_processed],
-        images=image_inputs,
-        videos=video_inputs,
-        padding=True,
-        return_tensors="pt",
-    )
-    inputs = inputs.to("cuda")
-
-    # Perform inference
-    generated_ids = model.generate(**inputs, max_new_tokens=128)
-    generated_ids_trimmed = [
-        out_ids[len(in_ids):] for in_ids, out_ids in zip(inputs.input_ids, generated_ids)
-    ]
-    output_text = processor.batch_decode(
-        generated_ids_trimmed, skip_special_tokens=True, clean_up_tokenization_spaces=False
-    )
-    chat_history.add_message("user", text)
-    chat_history.add_message("assistant", output_text)
-    return { output_text[0]}
-
-# Video-text interaction endpoint with local file upload
-@app.post("/video-text/")
-async def video_text_interaction(video: UploadFile = File(...), text: str = Form(...), fps: float = Form(1.0)):
-    # Save the uploaded video to a temporary file
+def video_messages(text: str, video_data: bytes, fps: float) -> List[Dict]:
+    # Save the video to a temporary file
     try:
         with tempfile.NamedTemporaryFile(delete=False, suffix=".mp4") as temp_file:
-            temp_file.write(await video.read())
+            temp_file.write(video_data)
             video_path = temp_file.name
 
         # Extract frames from the video
@@ -167,8 +153,7 @@ async def video_text_interaction(video: UploadFile = File(...), text: str = Form
     except Exception as e:
         raise HTTPException(status_code=400, detail=f"Error processing video: {str(e)}")
 
-    # Prepare the input messages for the model
-    messages = [
+    return [
         {
             "role": "user",
             "content": [
@@ -178,32 +163,334 @@ async def video_text_interaction(video: UploadFile = File(...), text: str = Form
         }
     ]
 
-    # Process vision info and prepare inputs
+def generate_answer(messages: List[Dict], vision: bool, **generate_kwargs) -> str:
+    """Run the model on the chat messages. Blocks until generation finishes."""
     text_input_processed = processor.apply_chat_template(
         messages, tokenize=False, add_generation_prompt=True
     )
-    image_inputs, video_inputs = process_vision_info(messages)
-    inputs = processor(
-        text=[text_input_processed],
-        images=image_inputs,
-        videos=video_inputs,
-        padding=True,
-        return_tensors="pt",
-    )
+    if vision:
+        image_inputs, video_inputs = process_vision_info(messages)
+        inputs = processor(
+            text=[text_input_processed],
+            images=image_inputs,
+            videos=video_inputs,
+            padding=True,
+            return_tensors="pt",
+        )
+    else:
+        inputs = processor(
+            text=[text_input_processed],
+            padding=True,
+            return_tensors="pt",
+        )
     inputs = inputs.to("cuda")
 
-    # Perform inference
-    generated_ids = model.generate(**inputs, max_new_tokens=128)
+    generated_ids = model.generate(**inputs, **generate_kwargs)
     generated_ids_trimmed = [
         out_ids[len(in_ids):] for in_ids, out_ids in zip(inputs.input_ids, generated_ids)
     ]
-    output_text = processor.batch_decode(
+    return processor.batch_decode(
         generated_ids_trimmed, skip_special_tokens=True, clean_up_tokenization_spaces=False
-    )
+    )[0]
+
+# Generation blocks, so it runs here to keep the event loop serving sockets; one at a time on the GPU
+model_executor = ThreadPoolExecutor(max_workers=1)
+
+# Time the server spent on a request, so clients can tell it apart from network time
+PROCESSING_TIME_HEADER = "X-Processing-Time"
+
+async def run_model(generate, response: Response):
+    start = time.monotonic()
+    result = await asyncio.get_running_loop().run_in_executor(model_executor, generate)
+    response.headers[PROCESSING_TIME_HEADER] = str(round((time.monotonic() - start) * 1000))
+    return result
+
+# text-only interaction endpoint
+@app.post("/text/")
+async def text_interaction(response: Response, text: str = Form(...)):
+    try:
+        output_text = await run_model(
+            lambda: generate_answer(text_messages(text), vision=False, max_new_tokens=256, temperature=0.7),
+            response)
+
+        # Add to chat history
+        chat_history.add_message("user", text)
+        chat_history.add_message("assistant", output_text)
+
+        return {output_text}
+
+    except Exception as e:
+        raise HTTPException(status_code=500, detail=str(e))
+
+# Image-text interaction endpoint with local file upload
+@app.post("/image-text/")
+async def image_text_interaction(response: Response, text: str = Form(...), image: Optional[UploadFile] = File(None),
+                                 image_sha256: Optional[str] = Form(None)):
+    # Read and process the uploaded or previously uploaded image
+    image_data = await resolve_media(image, image_sha256)
+    output_text = await run_model(
+        lambda: generate_answer(image_messages(text, image_data), vision=True, max_new_tokens=128), response)
     chat_history.add_message("user", text)
     chat_history.add_message("assistant", output_text)
-    return { output_text[0]}
-    
+    return {output_text}
+
+# Video-text interaction endpoint with local file upload
+@app.post("/video-text/")
+async def video_text_interaction(response: Response, text: str = Form(...), video: Optional[UploadFile] = File(None),
+                                 video_sha256: Optional[str] = Form(None), fps: float = Form(1.0)):
+    video_data = await resolve_media(video, video_sha256)
+    output_text = await run_model(
+        lambda: generate_answer(video_messages(text, video_data, fps), vision=True, max_new_tokens=128), response)
+    chat_history.add_message("user", text)
+    chat_history.add_message("assistant", output_text)
+    return {output_text}
+
+# Session frames: type (1 byte) | interaction id (4 bytes, big-endian) | payload
+# BEGIN payload: kind (1) | response offset (4) | video fps (4-byte float, 0 for default) | text
+SESSION_BEGIN, SESSION_MEDIA, SESSION_END, SESSION_CANCEL = 1, 2, 3, 4
+SESSION_RESPONSE, SESSION_DONE, SESSION_ERROR = 16, 17, 18
+KIND_TEXT, KIND_IMAGE, KIND_VIDEO = 0, 1, 2
+SESSION_ANSWERS_KEPT = 32
+
+class Generation:
+    """An answer being generated for one session interaction. Any socket of the session can follow
+    it from a character offset, so a client that reconnects mid-answer picks up the same answer
+    instead of starting a second one."""
+    def __init__(self):
+        self.text = ""
+        self.finished = False
+        self.error: Optional[str] = None
+        self.cancelled = threading.Event()
+        self.task: Optional[asyncio.Task] = None
+        self.changed = asyncio.Event()
+
+    def append(self, chunk: str):
+        self.text += chunk
+        self.notify()
+
+    def finish(self):
+        self.finished = True
+        self.notify()
+
+    def notify(self):
+        changed, self.changed = self.changed, asyncio.Event()
+        changed.set()
+
+    def cancel(self):
+        self.cancelled.set()
+        if self.task is not None:
+            self.task.cancel()
+
+    async def follow(self, offset: int):
+        """Yield the answer from the offset as it grows, until generation ends."""
+        position = offset
+        while True:
+            if len(self.text) > position:
+                chunk = self.text[position:]
+                position = len(self.text)
+                yield chunk
+            elif self.finished:
+                return
+            else:
+                await self.changed.wait()
+
+class Session:
+    def __init__(self):
+        self.answers: "OrderedDict[int, str]" = OrderedDict()
+        self.generations: Dict[int, Generation] = {}
+        self.sockets = 0
+        self.closed_at: Optional[float] = None
+
+class SessionAnswers:
+    """Recent answers per session id, so a client that reconnects can resume instead of re-asking.
+    A session is forgotten once it has had no open socket for the resume window, and the least
+    recently opened sessions go first beyond max_sessions."""
+    def __init__(self, resume_window_s: float = 120.0, max_sessions: int = 256):
+        self.sessions: "OrderedDict[str, Session]" = OrderedDict()
+        self.resume_window_s = resume_window_s
+        self.max_sessions = max_sessions
+
+    def open(self, session_id: str) -> Session:
+        self.expire()
+        session = self.sessions.pop(session_id, None) or Session()
+        session.sockets += 1
+        session.closed_at = None
+        self.sessions[session_id] = session
+        while len(self.sessions) > self.max_sessions:
+            self.sessions.popitem(last=False)
+        return session
+
+    def close(self, session_id: str):
+        session = self.sessions.get(session_id)
+        if session is not None:
+            session.sockets -= 1
+            if session.sockets <= 0:
+                session.closed_at = time.monotonic()
+
+    def expire(self):
+        cutoff = time.monotonic() - self.resume_window_s
+        for session_id in [key for key, session in self.sessions.items()
+                           if session.closed_at is not None and session.closed_at < cutoff]:
+            del self.sessions[session_id]
+
+session_answers = SessionAnswers()
+
+class QueueStreamer(TextStreamer):
+    """Hands decoded text from the generating thread to an asyncio queue; None ends the stream."""
+    def __init__(self, loop: asyncio.AbstractEventLoop, queue: asyncio.Queue):
+        super().__init__(processor.tokenizer, skip_prompt=True,
+                         skip_special_tokens=True, clean_up_tokenization_spaces=False)
+        self.loop = loop
+        self.queue = queue
+
+    def on_finalized_text(self, text: str, stream_end: bool = False):
+        if text:
+            self.loop.call_soon_threadsafe(self.queue.put_nowait, text)
+
+    def close(self):
+        self.loop.call_soon_threadsafe(self.queue.put_nowait, None)
+
+class StopOnEvent(StoppingCriteria):
+    """Stops generation once the interaction is cancelled."""
+    def __init__(self, event: threading.Event):
+        self.event = event
+
+    def __call__(self, input_ids, scores, **kwargs):
+        return torch.full((input_ids.shape[0],), self.event.is_set(), dtype=torch.bool, device=input_ids.device)
+
+def generate_session_answer(kind: int, text: str, media: bytes, fps: float,
+                            streamer: QueueStreamer, cancelled: threading.Event) -> str:
+    try:
+        if cancelled.is_set():
+            return ""  # Cancelled while waiting for the model
+        stopping = StoppingCriteriaList([StopOnEvent(cancelled)])
+        if kind == KIND_IMAGE:
+            return generate_answer(image_messages(text, media), vision=True, max_new_tokens=128,
+                                   streamer=streamer, stopping_criteria=stopping)
+        if kind == KIND_VIDEO:
+            return generate_answer(video_messages(text, media, fps), vision=True, max_new_tokens=128,
+                                   streamer=streamer, stopping_criteria=stopping)
+        return generate_answer(text_messages(text), vision=False, max_new_tokens=256, temperature=0.7,
+                               streamer=streamer, stopping_criteria=stopping)
+    finally:
+        streamer.close()
+
+async def produce_session_answer(session: Session, interaction_id: int, generation: Generation,
+                                 kind: int, text: str, media: bytes, fps: float):
+    """Run the model for one interaction, independent of the socket that asked, and keep the answer."""
+    loop = asyncio.get_running_loop()
+    chunks: asyncio.Queue = asyncio.Queue()
+    try:
+        result = loop.run_in_executor(model_executor, generate_session_answer,
+                                      kind, text, media, fps, QueueStreamer(loop, chunks), generation.cancelled)
+        while True:
+            chunk = await chunks.get()
+            if chunk is None:
+                break
+            generation.append(chunk)
+        await result  # Raises if generation failed
+        if not generation.cancelled.is_set():
+            chat_history.add_message("user", text)
+            chat_history.add_message("assistant", generation.text)
+            session.answers[interaction_id] = generation.text
+            while len(session.answers) > SESSION_ANSWERS_KEPT:
+                session.answers.popitem(last=False)
+    except asyncio.CancelledError:
+        generation.cancelled.set()
+    except HTTPException as e:
+        generation.error = str(e.detail)
+    except Exception as e:
+        generation.error = str(e)
+    finally:
+        if session.generations.get(interaction_id) is generation:
+            del session.generations[interaction_id]
+        generation.finish()
+
+def start_session_interaction(session: Session, interaction_id: int, kind: int,
+                              text: str, media: bytes, fps: float) -> Optional[Generation]:
+    """Start generating an interaction's answer unless it is kept or already being generated. Returns
+    the generation to follow, or None when the answer is kept."""
+    if interaction_id in session.answers:
+        return None
+    generation = session.generations.get(interaction_id)
+    if generation is None:
+        generation = Generation()
+        session.generations[interaction_id] = generation
+        generation.task = asyncio.create_task(
+            produce_session_answer(session, interaction_id, generation, kind, text, media, fps))
+    return generation
+
+async def run_session_interaction(send, session: Session, interaction_id: int,
+                                  generation: Optional[Generation], offset: int):
+    """Stream one interaction's answer from the given character offset, then DONE or ERROR. A
+    resumed interaction follows the answer already kept or still being generated."""
+    if generation is None:
+        await send(SESSION_RESPONSE, interaction_id, session.answers[interaction_id][offset:].encode("utf-8"))
+        await send(SESSION_DONE, interaction_id)
+        return
+
+    async for chunk in generation.follow(offset):
+        await send(SESSION_RESPONSE, interaction_id, chunk.encode("utf-8"))
+    if generation.error is not None:
+        await send(SESSION_ERROR, interaction_id, generation.error.encode("utf-8"))
+    elif not generation.cancelled.is_set():
+        await send(SESSION_DONE, interaction_id)
+
+# Full-duplex interaction session over one WebSocket
+@app.websocket("/session/")
+async def session_interaction(websocket: WebSocket, id: str):
+    await websocket.accept()
+    session = session_answers.open(id)
+    pending = {}
+    running = {}
+    connected = True
+
+    async def send(frame_type: int, interaction_id: int, payload: bytes = b""):
+        nonlocal connected
+        # Generation goes on after a disconnect so a resumed socket can follow it
+        if not connected:
+            return
+        try:
+            await websocket.send_bytes(struct.pack(">BI", frame_type, interaction_id) + payload)
+        except Exception:
+            connected = False
+
+    def finished(interaction_id: int, task: asyncio.Task):
+        if running.get(interaction_id) is task:
+            del running[interaction_id]
+
+    try:
+        while True:
+            frame = await websocket.receive_bytes()
+            frame_type, interaction_id = struct.unpack_from(">BI", frame, 0)
+            payload = frame[5:]
+            if frame_type == SESSION_BEGIN:
+                kind, offset, fps = struct.unpack_from(">BIf", payload, 0)
+                pending[interaction_id] = (kind, offset, fps if fps > 0 else 1.0, payload[9:].decode("utf-8"), bytearray())
+            elif frame_type == SESSION_MEDIA and interaction_id in pending:
+                pending[interaction_id][4].extend(payload)
+            elif frame_type == SESSION_CANCEL:
+                pending.pop(interaction_id, None)
+                task = running.pop(interaction_id, None)
+                if task is not None:
+                    task.cancel()
+                generation = session.generations.get(interaction_id)
+                if generation is not None:
+                    generation.cancel()
+            elif frame_type == SESSION_END and interaction_id in pending:
+                kind, offset, fps, text, media = pending.pop(interaction_id)
+                generation = start_session_interaction(session, interaction_id, kind, text, bytes(media), fps)
+                task = asyncio.create_task(run_session_interaction(send, session, interaction_id, generation, offset))
+                running[interaction_id] = task
+                task.add_done_callback(functools.partial(finished, interaction_id))
+    except WebSocketDisconnect:
+        connected = False
+    finally:
+        session_answers.close(id)
+        # Followers on this socket stop; generations keep running for a resume
+        for task in running.values():
+            task.cancel()
+
 # Run the app with Uvicorn
 if __name__ == "__main__":
     import uvicorn